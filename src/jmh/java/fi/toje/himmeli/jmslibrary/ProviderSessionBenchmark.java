@@ -0,0 +1,232 @@
+package fi.toje.himmeli.jmslibrary;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+import javax.jms.BytesMessage;
+import javax.jms.Connection;
+import javax.jms.DeliveryMode;
+import javax.jms.JMSException;
+import javax.jms.Message;
+import javax.jms.MessageConsumer;
+import javax.jms.MessageListener;
+import javax.jms.Session;
+
+import org.apache.activemq.ActiveMQConnectionFactory;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks of ProviderSession against in-VM ActiveMQ broker (non-persistent,
+ * no JMX). Each benchmark runs with every message size and session type.
+ *
+ * Run: mvn -P benchmark test-compile exec:exec
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ProviderSessionBenchmark {
+
+	private static final String BROKER_URL = "vm://benchmark?broker.persistent=false&broker.useJmx=false";
+	private static final String QUEUE = "QUEUE.JMSLIBRARY.BENCHMARK";
+	private static final int CLEAR_BATCH = 10;
+	// bytes kept in the broker at most, keeps clear of producer flow control
+	private static final int MAX_QUEUED_BYTES = 10000000;
+	
+	@State(Scope.Thread)
+	public static class SessionState {
+		
+		@Param({ "100", "10000", "1000000" })
+		public int messageSize;
+		
+		@Param({ Options.AUTO_ACKNOWLEDGE, Options.CLIENT_ACKNOWLEDGE, Options.SESSION_TRANSACTED })
+		public String type;
+		
+		Connection connection;
+		ProviderConnection providerConnection;
+		ProviderSession ps;
+		String text;
+		boolean transacted;
+		
+		@Setup(Level.Trial)
+		public void connect() throws Exception {
+			connection = new ActiveMQConnectionFactory(BROKER_URL).createConnection();
+			providerConnection = new ProviderConnection(connection);
+			int t = Options.convertType(type);
+			transacted = t == Session.SESSION_TRANSACTED;
+			providerConnection.initSession(transacted, t);
+			providerConnection.start();
+			ps = providerConnection.getProviderSession();
+			ps.getProducer().setDeliveryMode(DeliveryMode.NON_PERSISTENT);
+			char[] chars = new char[messageSize];
+			Arrays.fill(chars, 'x');
+			text = new String(chars);
+			ps.clearQueueOnce(QUEUE, CLEAR_BATCH, 100);
+		}
+		
+		@TearDown(Level.Trial)
+		public void close() throws Exception {
+			ps.clearQueueOnce(QUEUE, CLEAR_BATCH, 100);
+			providerConnection.close();
+		}
+		
+		/**
+		 * Commits or acknowledges depending on the session type.
+		 */
+		void complete() throws JMSException {
+			if (transacted) {
+				ps.commit();
+			} else if (Options.CLIENT_ACKNOWLEDGE.equals(type)) {
+				ps.acknowledge();
+			}
+		}
+	}
+	
+	/**
+	 * Consumes the benchmark queue on a separate session so that sent
+	 * messages do not pile up in the broker.
+	 */
+	public static class SinkState extends SessionState {
+		
+		Session sinkSession;
+		
+		@Setup(Level.Trial)
+		public void sink() throws Exception {
+			ps.createTextMessage(text);
+			sinkSession = providerConnection.createSession(false, Session.AUTO_ACKNOWLEDGE);
+			MessageConsumer sink = sinkSession.createConsumer(sinkSession.createQueue(QUEUE));
+			sink.setMessageListener(new MessageListener() {
+				@Override
+				public void onMessage(Message message) {
+				}
+			});
+		}
+		
+		@TearDown(Level.Trial)
+		public void closeSink() throws Exception {
+			sinkSession.close();
+		}
+	}
+	
+	public static class TextState extends SessionState {
+		
+		@Setup(Level.Trial)
+		public void text() throws Exception {
+			ps.createTextMessage(text);
+		}
+	}
+	
+	public static class ConsumerState extends TextState {
+		
+		@Setup(Level.Trial)
+		public void consumer() throws Exception {
+			ps.initializeQueueConsumer(QUEUE);
+		}
+	}
+	
+	public static class DepthState extends TextState {
+		
+		@Setup(Level.Trial)
+		public void fill() throws Exception {
+			int count = Math.max(1, Math.min(1000, MAX_QUEUED_BYTES / messageSize));
+			ps.sendMessagesToQueue(QUEUE, count, CLEAR_BATCH, null);
+		}
+	}
+	
+	public static class FileState extends SessionState {
+		
+		File in;
+		File out;
+		
+		@Setup(Level.Trial)
+		public void files() throws IOException, JMSException {
+			in = File.createTempFile("jmslibrary-benchmark", ".in");
+			out = File.createTempFile("jmslibrary-benchmark", ".out");
+			in.deleteOnExit();
+			out.deleteOnExit();
+			byte[] bytes = new byte[messageSize];
+			Arrays.fill(bytes, (byte)'x');
+			FileOutputStream fos = new FileOutputStream(in);
+			try {
+				fos.write(bytes);
+			} finally {
+				fos.close();
+			}
+			ps.createBytesMessage(in.getPath());
+		}
+	}
+	
+	@Benchmark
+	public void sendToQueue(SinkState s) throws Exception {
+		s.ps.sendToQueue(QUEUE);
+		if (s.transacted) {
+			s.ps.commit();
+		}
+	}
+	
+	@Benchmark
+	public void sendAndReceive(ConsumerState s) throws Exception {
+		s.ps.sendToQueue(QUEUE);
+		if (s.transacted) {
+			s.ps.commit();
+		}
+		s.ps.receive(1000);
+		s.complete();
+		// receive replaced the current message
+		s.ps.createTextMessage(s.text);
+	}
+	
+	@Benchmark
+	public void sendAndReceiveOnceFromQueue(TextState s) throws Exception {
+		s.ps.sendToQueue(QUEUE);
+		if (s.transacted) {
+			s.ps.commit();
+		}
+		s.ps.receiveOnceFromQueue(QUEUE, 1000);
+		s.ps.createTextMessage(s.text);
+	}
+	
+	@Benchmark
+	public int queueDepth(DepthState s) throws Exception {
+		return s.ps.queueDepth(QUEUE);
+	}
+	
+	@Benchmark
+	@OperationsPerInvocation(CLEAR_BATCH)
+	public long sendAndClearQueueOnce(TextState s) throws Exception {
+		s.ps.sendMessagesToQueue(QUEUE, CLEAR_BATCH, CLEAR_BATCH, null);
+		
+		return s.ps.clearQueueOnce(QUEUE, CLEAR_BATCH, 20).getCount();
+	}
+	
+	@Benchmark
+	public Message createBytesMessage(FileState s) throws Exception {
+		s.ps.createBytesMessage(s.in.getPath());
+		
+		return s.ps.getMessage();
+	}
+	
+	@Benchmark
+	public void writeBytes(FileState s) throws Exception {
+		// back to the beginning of the body for reading
+		((BytesMessage)s.ps.getMessage()).reset();
+		s.ps.writeBytes(s.out.getPath(), false);
+	}
+}
@@ -1,15 +1,36 @@
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Properties;
 
 import javax.jms.Connection;
 import javax.jms.ConnectionFactory;
 import javax.jms.JMSException;
+import javax.jms.MapMessage;
+import javax.jms.Message;
+import javax.jms.Queue;
+import javax.jms.TextMessage;
+import javax.jms.Topic;
 import javax.naming.Context;
 import javax.naming.InitialContext;
 
+import fi.toje.himmeli.jmslibrary.BodyCompression;
+import fi.toje.himmeli.jmslibrary.ConnectionPool;
+import fi.toje.himmeli.jmslibrary.JndiCache;
+import fi.toje.himmeli.jmslibrary.LatencyHistogram;
+import fi.toje.himmeli.jmslibrary.LatencyRecorder;
+import fi.toje.himmeli.jmslibrary.LoadGenerator;
+import fi.toje.himmeli.jmslibrary.LruCache;
+import fi.toje.himmeli.jmslibrary.Measurement;
+import fi.toje.himmeli.jmslibrary.MessageCapture;
+import fi.toje.himmeli.jmslibrary.MessageTemplate;
+import fi.toje.himmeli.jmslibrary.ParallelClear;
 import fi.toje.himmeli.jmslibrary.ProviderConnection;
 import fi.toje.himmeli.jmslibrary.ProviderSession;
+import fi.toje.himmeli.jmslibrary.Replay;
+import fi.toje.himmeli.jmslibrary.ThroughputRun;
 import fi.toje.himmeli.jmslibrary.Options;
 
 /**
@@ -17,8 +38,12 @@ import fi.toje.himmeli.jmslibrary.Options;
  * 
  * Set the library and JMS provider jars into classpath and start testing.
  * 
- * Library uses one connection which has one session. Session includes one
- * message producer and one message consumer.
+ * Library can have several named connections, each with several named
+ * sessions. Keywords operate on the current session of the current
+ * connection. `Connect` and `Init Session` use the name 'default'; other
+ * connections and sessions are opened with `Open Connection` and `Open
+ * Session` and selected with `Switch Connection` and `Switch Session`.
+ * Session includes one message producer and one message consumer.
  * 
  * Default receive timeout is 100 ms.
  * 
@@ -71,6 +96,10 @@ public class JMSLibrary {
 	private InitialContext initialContext;
 	private ConnectionFactory connectionFactory;
 	private ProviderConnection providerConnection;
+	private Map<String, ProviderConnection> connections = new LinkedHashMap<String, ProviderConnection>();
+	private String connectionAlias;
+	private boolean pooled;
+	private ThroughputRun throughputRun;
 	
 	public JMSLibrary() {
 	}
@@ -82,26 +111,39 @@ public class JMSLibrary {
 	 * 
 	 * Optional settings:
 	 * - _connection_factory_name_: lookup name for connection factory. 'ConnectionFactory' is the default value.
-	 * - _connect_: false by default. True connects automatically. Closes previous connection if one existed.
+	 * - _connect_: false by default. True connects automatically as connection 'default'. Closes previous 'default' connection if one existed; other named connections are left open.
 	 * - _username_:  connection username
 	 * - _password_:  connection password
 	 * - _client_id_: client id.
 	 * - _start_:  false by default. True starts the connection automatically and initializes default session.
 	 * - _transacted_:  false by default.
 	 * - _type_:  session type. AUTO_ACKNOWLEDGE by default.
+	 * - _cache_:  false by default. True reuses the initial context and connection factory looked up earlier with the same initial context factory, provider URL and lookup name, also by other suites. Refer `Invalidate JNDI Cache`.
+	 * - _pooled_:  false by default. True leases connections from a pool shared by all suites and returns them on `Close Connection`. Use with _cache_, connections are pooled per connection factory instance. Refer `Configure Connection Pool`.
 	 * 
 	 * Examples:
 	 * | Init Provider | org.apache.activemq.jndi.ActiveMQInitialContextFactory | tcp://localhost:61616?jms.useAsyncSend=false |
 	 * | Init Provider | com.sun.jndi.fscontext.RefFSContextFactory | file:/C:/JNDI-Directory | connection_factory_name=myCF |  connect=true  |
 	 */
 	public void initProvider(String initialContextFactory, String jndiProviderUrl, Map<String, String> settings) throws Exception {
-		Properties env = new Properties( );
-		env.put(Context.INITIAL_CONTEXT_FACTORY, initialContextFactory);
-		env.put(Context.PROVIDER_URL, jndiProviderUrl);
-		initialContext = new InitialContext(env);
+		pooled = settings != null && Boolean.parseBoolean(settings.get(Options.SETTINGS_KW_POOLED));
+		if (settings != null && Boolean.parseBoolean(settings.get(Options.SETTINGS_KW_CACHE))) {
+			String lookupName = settings.get(Options.SETTINGS_KW_CONNECTION_FACTORY_LOOKUP_NAME);
+			if (lookupName == null) {
+				lookupName = Options.DEFAULT_CONNECTION_FACTORY_LOOKUP_NAME;
+			}
+			initialContext = JndiCache.getContext(initialContextFactory, jndiProviderUrl);
+			connectionFactory = JndiCache.getConnectionFactory(initialContextFactory, jndiProviderUrl, lookupName);
+		} else {
+			Properties env = new Properties( );
+			env.put(Context.INITIAL_CONTEXT_FACTORY, initialContextFactory);
+			env.put(Context.PROVIDER_URL, jndiProviderUrl);
+			initialContext = new InitialContext(env);
+		}
 		
 		if (settings != null) {
 			String lookupName = settings.get(Options.SETTINGS_KW_CONNECTION_FACTORY_LOOKUP_NAME);
+			boolean cache = Boolean.parseBoolean(settings.get(Options.SETTINGS_KW_CACHE));
 			boolean connect = Boolean.parseBoolean(settings.get(Options.SETTINGS_KW_CONNECT));
 			String username = settings.get(Options.SETTINGS_KW_USERNAME);
 			String password = settings.get(Options.SETTINGS_KW_PASSWORD);
@@ -109,22 +151,31 @@ public class JMSLibrary {
 			boolean start = Boolean.parseBoolean(settings.get(Options.SETTINGS_KW_START_CONNECTION));
 			boolean transacted = Boolean.parseBoolean(settings.get(Options.SETTINGS_KW_TRANSACTED));
 			String type = settings.get(Options.SETTINGS_KW_TYPE);
-			if (lookupName != null) {
-				connectionFactory = (ConnectionFactory)initialContext.lookup(lookupName);
-			} else {
-				connectionFactory = (ConnectionFactory)initialContext.lookup(Options.DEFAULT_CONNECTION_FACTORY_LOOKUP_NAME);
+			if (!cache) {
+				if (lookupName != null) {
+					connectionFactory = (ConnectionFactory)initialContext.lookup(lookupName);
+				} else {
+					connectionFactory = (ConnectionFactory)initialContext.lookup(Options.DEFAULT_CONNECTION_FACTORY_LOOKUP_NAME);
+				}
 			}
 			if (connect) {
-				if (providerConnection != null) {
-					closeConnection();
-				}
-				if (username != null && password != null) {
-					connect(username, password);
+				closeConnection(Options.DEFAULT_ALIAS);
+				if (pooled) {
+					// client id of a pooled connection is set when created
+					if (username != null && password != null) {
+						leaseConnection(Options.DEFAULT_ALIAS, username, password, clientId);
+					} else {
+						leaseConnection(Options.DEFAULT_ALIAS, null, null, clientId);
+					}
 				} else {
-					connect();
-				}
-				if (clientId != null) {
-					setClientId(clientId);
+					if (username != null && password != null) {
+						connect(username, password);
+					} else {
+						connect();
+					}
+					if (clientId != null) {
+						setClientId(clientId);
+					}
 				}
 				if (start) {
 					if (type != null) {
@@ -151,9 +202,45 @@ public class JMSLibrary {
 	 * Connects to provider. Does not initialize session or start connection.
 	 */
 	public void connect(String username, String password) throws Exception {
-		if (providerConnection != null) {
+		if (connections.containsKey(Options.DEFAULT_ALIAS)) {
 			throw new Exception("Connection exists");
 		}
+		openConnection(Options.DEFAULT_ALIAS, username, password);
+	}
+	
+	/**
+	 * Opens additional named connection with the connection factory of the
+	 * latest `Init Provider` and makes it current. All the other keywords
+	 * operate on the current connection and its current session. Connections
+	 * to different providers are opened by calling `Init Provider` before
+	 * each. `Connect` opens connection named 'default'.
+	 * 
+	 * Does not initialize session or start connection.
+	 * 
+	 * Arguments:
+	 * - _alias_: name of the connection
+	 * - _username_: optional
+	 * - _password_: optional
+	 * 
+	 * Example:
+	 * | Init Provider | ${INITIAL_CONTEXT_FACTORY} | ${BROKER1_URL} |
+	 * | Open Connection | broker1 |
+	 * | Init Provider | ${INITIAL_CONTEXT_FACTORY} | ${BROKER2_URL} |
+	 * | Open Connection | broker2 |
+	 * | Switch Connection | broker1 |
+	 */
+	public void openConnection(String alias) throws Exception {
+		openConnection(alias, null, null);
+	}
+	
+	public void openConnection(String alias, String username, String password) throws Exception {
+		if (pooled) {
+			leaseConnection(alias, username, password, null);
+			return;
+		}
+		if (connections.containsKey(alias)) {
+			throw new Exception("Connection '" + alias + "' exists.");
+		}
 		Connection connection;
 		if (username != null) {
 			connection = connectionFactory.createConnection(username, password);
@@ -161,7 +248,106 @@ public class JMSLibrary {
 			connection = connectionFactory.createConnection();
 		}
 		
-		providerConnection = new ProviderConnection(connection);
+		register(alias, new ProviderConnection(connection));
+	}
+	
+	private void leaseConnection(String alias, String username, String password, String clientId) throws Exception {
+		if (connections.containsKey(alias)) {
+			throw new Exception("Connection '" + alias + "' exists.");
+		}
+		ConnectionPool pool = ConnectionPool.getShared();
+		Connection connection = pool.lease(connectionFactory, username, password, clientId);
+		
+		register(alias, new ProviderConnection(connection, pool));
+	}
+	
+	private void register(String alias, ProviderConnection pc) {
+		providerConnection = pc;
+		connections.put(alias, providerConnection);
+		connectionAlias = alias;
+	}
+	
+	/**
+	 * Sets limits of the connection pool shared by all suites, refer the
+	 * _pooled_ setting of `Init Provider`. Leasing fails when _max_size_
+	 * connections are leased. Connections idle longer than _idle_timeout_
+	 * are closed. Leased connections are not affected.
+	 * 
+	 * Arguments:
+	 * - _max_size_: maximum count of leased and idle connections, 16 by default
+	 * - _idle_timeout_: milliseconds, 300000 by default
+	 */
+	public void configureConnectionPool(int maxSize, long idleTimeout) {
+		ConnectionPool.getShared().configure(maxSize, idleTimeout);
+	}
+	
+	/**
+	 * Returns statistics of the connection pool shared by all suites.
+	 * 
+	 * Keys: leased, idle, max_size, created, reused, discarded
+	 */
+	public Map<String, Long> getConnectionPoolStatistics() {
+		return ConnectionPool.getShared().getStatistics();
+	}
+	
+	/**
+	 * Closes idle connections of the connection pool shared by all suites.
+	 * Typically in the teardown of the top level suite.
+	 * 
+	 * Returns count of closed connections.
+	 */
+	public int closeIdlePooledConnections() {
+		int count = ConnectionPool.getShared().closeIdle();
+		System.out.println(count + " pooled connections closed.");
+		
+		return count;
+	}
+	
+	/**
+	 * Makes the named connection current.
+	 * 
+	 * Argument:
+	 * - _alias_: name of the connection
+	 * 
+	 * Returns alias of the previous current connection.
+	 */
+	public String switchConnection(String alias) throws Exception {
+		ProviderConnection pc = connections.get(alias);
+		if (pc == null) {
+			throw new Exception("No connection '" + alias + "'.");
+		}
+		String previous = connectionAlias;
+		providerConnection = pc;
+		connectionAlias = alias;
+		
+		return previous;
+	}
+	
+	/**
+	 * Returns aliases of open connections.
+	 */
+	public List<String> getConnectionAliases() {
+		return new ArrayList<String>(connections.keySet());
+	}
+	
+	/**
+	 * Closes all connections opened with `Connect` or `Open Connection`.
+	 */
+	public void closeAllConnections() throws Exception {
+		Exception error = null;
+		for (ProviderConnection pc : connections.values()) {
+			try {
+				pc.close();
+			} catch (Exception e) {
+				error = e;
+			}
+		}
+		connections.clear();
+		providerConnection = null;
+		connectionAlias = null;
+		if (error != null) {
+			throw error;
+		}
 	}
 	
 	/**
@@ -199,6 +385,63 @@ public class JMSLibrary {
 		providerConnection.initSession(transacted, Options.convertType(type));
 	}
 	
+	/**
+	 * Opens additional named session for the current connection and makes it
+	 * current. Each session has its own producer, consumer and message.
+	 * `Init Session` (re)initializes the current session, which is named
+	 * 'default' unless opened with this keyword. Existing session of the
+	 * alias is closed before.
+	 * 
+	 * Arguments:
+	 * - _alias_: name of the session
+	 * - _transacted_: false by default
+	 * - _type_: AUTO_ACKNOWLEDGE by default
+	 * 
+	 * Example:
+	 * | Open Session | sender |
+	 * | Open Session | receiver | true | SESSION_TRANSACTED |
+	 * | Switch Session | sender |
+	 */
+	public void openSession(String alias) throws Exception {
+		openSession(alias, false, Options.AUTO_ACKNOWLEDGE);
+	}
+	
+	public void openSession(String alias, boolean transacted, String type) throws Exception {
+		providerConnection.openSession(alias, transacted, Options.convertType(type));
+	}
+	
+	/**
+	 * Makes the named session of the current connection current.
+	 * 
+	 * Argument:
+	 * - _alias_: name of the session
+	 * 
+	 * Returns alias of the previous current session.
+	 */
+	public String switchSession(String alias) throws Exception {
+		String previous = providerConnection.getSessionAlias();
+		providerConnection.switchSession(alias);
+		
+		return previous;
+	}
+	
+	/**
+	 * Closes the named session of the current connection.
+	 * 
+	 * Argument:
+	 * - _alias_: name of the session
+	 */
+	public void closeSession(String alias) throws Exception {
+		providerConnection.closeSession(alias);
+	}
+	
+	/**
+	 * Returns aliases of sessions of the current connection.
+	 */
+	public List<String> getSessionAliases() {
+		return providerConnection.getSessionAliases();
+	}
+	
 	/**
 	 * Starts connection.
 	 */
@@ -214,12 +457,48 @@ public class JMSLibrary {
 	}
 	
 	/**
-	 * Closes provider connection. Closes all resources (session, producer and
-	 * consumer).
+	 * Closes the current provider connection. Closes all resources (sessions,
+	 * producers and consumers). Pooled connection is stopped and returned to
+	 * the pool instead. Other connections are left open, use `Switch
+	 * Connection` to continue with one of them. Fails if there is no current
+	 * connection.
 	 */
 	public void closeConnection() throws Exception {
-		providerConnection.close();
-		providerConnection = null;
+		if (providerConnection == null) {
+			throw new Exception("No current connection to close.");
+		}
+		connections.remove(connectionAlias);
+		connectionAlias = null;
+		try {
+			providerConnection.close();
+		} finally {
+			providerConnection = null;
+		}
+	}
+	
+	/**
+	 * Closes idle cached consumers of the connection before a keyword which
+	 * consumes or browses queues, so that their prefetched messages are
+	 * available to it.
+	 * 
+	 * @return current session
+	 */
+	private ProviderSession consumingSession() throws JMSException {
+		providerConnection.evictIdleConsumers();
+		
+		return providerConnection.getProviderSession();
+	}
+	
+	private void closeConnection(String alias) throws Exception {
+		ProviderConnection pc = connections.remove(alias);
+		if (pc == null) {
+			return;
+		}
+		if (pc == providerConnection) {
+			providerConnection = null;
+			connectionAlias = null;
+		}
+		pc.close();
 	}
 	
 	/**
@@ -261,14 +540,87 @@ public class JMSLibrary {
 	
 	/**
 	 * Creates BytesMessage from file. Additional properties can be set after
-	 * creation.
+	 * creation. File is copied into the body through a buffer of the size
+	 * set by `Set Buffer Size`.
 	 * 
 	 * Argument:
 	 * - _file_: source file name
+	 * 
+	 * Returns dictionary with keys bytes, elapsed_ms and byte_rate (bytes
+	 * per second).
+	 */
+	public Map<String, Object> createBytesMessageFromFile(String file) throws JMSException, IOException {
+		ProviderSession ps = providerConnection.getProviderSession();
+		Measurement m = ps.createBytesMessage(file);
+		System.out.println(m.getBytes() + " bytes in " + m.getElapsedMillis() + " ms (" + m.getByteRate() + " bytes/s).");
+		
+		return m.toMap();
+	}
+	
+	/**
+	 * Sets the size of buffer used when copying between files and messages.
+	 * Default is 65536 bytes.
+	 * 
+	 * Argument:
+	 * - _size_: bytes
+	 */
+	public void setBufferSize(int size) {
+		ProviderSession ps = providerConnection.getProviderSession();
+		ps.setBufferSize(size);
+	}
+	
+	/**
+	 * Compresses bodies of BytesMessages created after this with `Create
+	 * Bytes Message` and `Create Bytes Message From File`. Body is compressed
+	 * with GZIP and the message gets string property
+	 * JMSLibraryCompression=gzip and long property JMSLibraryOriginalSize.
+	 * 
+	 * Received messages with the property are decompressed regardless of
+	 * this setting by `Get Bytes As String`, `Write Bytes To File`, `Bytes
+	 * Body Should Contain` and other keywords reading bytes bodies. Other
+	 * receivers must decompress themselves.
+	 * 
+	 * Argument:
+	 * - _level_: 1 (fastest) - 9 (best), default compression if not given
+	 * 
+	 * Example:
+	 * | Enable Body Compression | 6 |
+	 * | Create Bytes Message From File | ${CURDIR}/large.xml |
+	 * | ${stats}= | Get Compression Statistics |
+	 */
+	public void enableBodyCompression() {
+		enableBodyCompression(-1);
+	}
+	
+	public void enableBodyCompression(int level) {
+		ProviderSession ps = providerConnection.getProviderSession();
+		ps.enableCompression(level);
+	}
+	
+	/**
+	 * Stops compressing bodies of created BytesMessages. Compressed messages
+	 * are still decompressed when read.
 	 */
-	public void createBytesMessageFromFile(String file) throws JMSException, IOException {
+	public void disableBodyCompression() {
 		ProviderSession ps = providerConnection.getProviderSession();
-		ps.createBytesMessage(file);
+		ps.disableCompression();
+	}
+	
+	/**
+	 * Returns statistics of the latest compression or decompression of the
+	 * session as dictionary with keys original_bytes, compressed_bytes,
+	 * ratio (original / compressed) and cpu_ms (CPU time of the thread).
+	 */
+	public Map<String, Object> getCompressionStatistics() throws Exception {
+		ProviderSession ps = providerConnection.getProviderSession();
+		BodyCompression compression = ps.getCompression();
+		if (compression == null) {
+			throw new Exception("No body has been compressed or decompressed.");
+		}
+		Map<String, Object> stats = compression.toMap();
+		System.out.println(stats);
+		
+		return stats;
 	}
 	
 	/**
@@ -283,6 +635,88 @@ public class JMSLibrary {
 		ps.createBytesMessage(text, charset);
 	}
 	
+	/**
+	 * Creates TextMessage from template file. Template is read in UTF-8 and
+	 * parsed once, later uses of the file are served from a cache until the
+	 * file changes.
+	 * 
+	 * Placeholders are written as ${name} in the file. ${sequence} is
+	 * replaced with the next sequence number of the template starting from
+	 * 1, ${uuid} with a random UUID, ${timestamp} with current time in
+	 * milliseconds since epoch and other names with the given values. $${
+	 * is written as literal ${.
+	 * 
+	 * Arguments:
+	 * - _file_: template file
+	 * - _values_: values of the placeholders as named arguments
+	 * 
+	 * Example:
+	 * | Create Text Message From Template | ${CURDIR}/order.xml | customer=Matti | amount=100 |
+	 */
+	public void createTextMessageFromTemplate(String file, Map<String, String> values) throws Exception {
+		ProviderSession ps = providerConnection.getProviderSession();
+		ps.createTextMessageFromTemplate(file, values);
+	}
+	
+	/**
+	 * Creates BytesMessage from template file. Similar as `Create Text
+	 * Message From Template`, the rendered text is encoded in the charset.
+	 * 
+	 * Arguments:
+	 * - _file_: template file
+	 * - _charset_: target character set
+	 * - _values_: values of the placeholders as named arguments
+	 */
+	public void createBytesMessageFromTemplate(String file, String charset, Map<String, String> values) throws Exception {
+		ProviderSession ps = providerConnection.getProviderSession();
+		ps.createBytesMessageFromTemplate(file, charset, values);
+	}
+	
+	/**
+	 * Creates MapMessage. Values keep their types: strings, booleans,
+	 * integers and floating point numbers are stored with the corresponding
+	 * JMS types, other values as strings.
+	 * 
+	 * Argument:
+	 * - _values_: entries as named arguments or dictionary
+	 * 
+	 * Examples:
+	 * | Create Map Message | customer=Matti | amount=${100} | paid=${True} |
+	 * | Create Map Message | &{order} |
+	 */
+	public void createMapMessage(Map<String, Object> values) throws JMSException {
+		ProviderSession ps = providerConnection.getProviderSession();
+		ps.createMapMessage(values);
+	}
+	
+	/**
+	 * Creates StreamMessage. Values are written in order, types are kept as
+	 * in `Create Map Message`.
+	 * 
+	 * Argument:
+	 * - _values_: list of values
+	 * 
+	 * Example:
+	 * | @{values}= | Create List | Matti | ${100} | ${True} |
+	 * | Create Stream Message | ${values} |
+	 */
+	public void createStreamMessage(List<Object> values) throws JMSException {
+		ProviderSession ps = providerConnection.getProviderSession();
+		ps.createStreamMessage(values);
+	}
+	
+	/**
+	 * Creates ObjectMessage. Object must be serializable, lists and
+	 * dictionaries are copied into Java collections.
+	 * 
+	 * Argument:
+	 * - _object_: body of the message
+	 */
+	public void createObjectMessage(Object object) throws JMSException {
+		ProviderSession ps = providerConnection.getProviderSession();
+		ps.createObjectMessage(object);
+	}
+	
 	/**
 	 * Sets JMSType of message.
 	 */
@@ -480,76 +914,340 @@ public class JMSLibrary {
 	}
 	
 	/**
-	 * Returns JMSMessageID.
+	 * Sets int property for message.
+	 * 
+	 * Arguments:
+	 * - _name_: name of the property
+	 * - _value_: int value
+	 * 
+	 * Example:
+	 * | Set Int Property | own_prop | 42 |
 	 */
-	public String getJmsMessageId() throws JMSException {
+	public void setIntProperty(String name, int value) throws Exception {
 		ProviderSession ps = providerConnection.getProviderSession();
-		String id = ps.getJmsMessageId();
-		System.out.println("MessageId=" + id);
+		ps.setIntProperty(name, value);
+		System.out.println(name + "=" + value);
+	}
+	
+	/**
+	 * Returns int property of message. Property set with other type is
+	 * converted as defined in JMS specs.
+	 * 
+	 * Arguments:
+	 * - _name_: name of the property
+	 */
+	public int getIntProperty(String name) throws Exception {
+		ProviderSession ps = providerConnection.getProviderSession();
+		int value = ps.getIntProperty(name);
+		System.out.println(name + "=" + value);
 		
-		return id;
+		return value;
 	}
 	
 	/**
-	 * Receives using the consumer. The message is set to internal message
-	 * object and its body and properties can be accessed via methods.
+	 * Sets long property for message.
 	 * 
-	 * `Init Queue Consumer`, `Init Topic Consumer` or `Init Durable Subscriber`
-	 * must have been called before this.
+	 * Arguments:
+	 * - _name_: name of the property
+	 * - _value_: long value
 	 * 
-	 * Fails if message is not available.
+	 * Example:
+	 * | Set Long Property | own_prop | 1234567890123 |
 	 */
-	public void receive() throws Exception {
+	public void setLongProperty(String name, long value) throws Exception {
 		ProviderSession ps = providerConnection.getProviderSession();
-		ps.receive();
+		ps.setLongProperty(name, value);
+		System.out.println(name + "=" + value);
 	}
 	
 	/**
-	 * Similar as plain Receive but with additional timeout argument.
+	 * Returns long property of message. Property set with other type is
+	 * converted as defined in JMS specs.
 	 * 
-	 * Argument:
-	 * - _timeout_: receive timeout in milliseconds
+	 * Arguments:
+	 * - _name_: name of the property
 	 */
-	public void receive(long timeout) throws Exception {
+	public long getLongProperty(String name) throws Exception {
 		ProviderSession ps = providerConnection.getProviderSession();
-		ps.receive(timeout);
+		long value = ps.getLongProperty(name);
+		System.out.println(name + "=" + value);
+		
+		return value;
 	}
 	
 	/**
-	 * Sends message to queue. The message must have been created beforehand
-	 * using one of the create message methods. Message id can be accessed after
-	 * sending.
+	 * Sets double property for message.
+	 * 
+	 * Arguments:
+	 * - _name_: name of the property
+	 * - _value_: double value
+	 * 
+	 * Example:
+	 * | Set Double Property | own_prop | 1.5 |
 	 */
-	public void sendToQueue(String queue) throws Exception {
+	public void setDoubleProperty(String name, double value) throws Exception {
 		ProviderSession ps = providerConnection.getProviderSession();
-		ps.sendToQueue(queue);
+		ps.setDoubleProperty(name, value);
+		System.out.println(name + "=" + value);
 	}
 	
 	/**
-	 * Receives message from queue. Local MessageConsumer is created on the fly
-	 * and closed after receiving. Acknowledges or commits depending on the
-	 * session configuration. This can be called without preceding `Init
-	 * Queue Consumer` keyword and there is no need to close the consumer with
-	 * `Close Consumer` keyword. The message is set to internal message object
-	 * and its body and properties can be accessed via methods.
+	 * Returns double property of message. Property set with other type is
+	 * converted as defined in JMS specs.
 	 * 
-	 * Fails if message is not available.
+	 * Arguments:
+	 * - _name_: name of the property
 	 */
-	public void receiveOnceFromQueue(String queue) throws Exception {
+	public double getDoubleProperty(String name) throws Exception {
 		ProviderSession ps = providerConnection.getProviderSession();
-		ps.receiveOnceFromQueue(queue);
+		double value = ps.getDoubleProperty(name);
+		System.out.println(name + "=" + value);
+		
+		return value;
 	}
 	
 	/**
-	 * Similar as Receive Once From Queue but with additional timeout argument.
+	 * Sets boolean property for message.
 	 * 
 	 * Arguments:
-	 * - _queue_: name of the queue
-	 * - _timeout_: receive timeout in milliseconds
+	 * - _name_: name of the property
+	 * - _value_: boolean value
+	 * 
+	 * Example:
+	 * | Set Boolean Property | own_prop | true |
 	 */
-	public void receiveOnceFromQueue(String queue, long timeout) throws Exception {
+	public void setBooleanProperty(String name, boolean value) throws Exception {
 		ProviderSession ps = providerConnection.getProviderSession();
-		ps.receiveOnceFromQueue(queue, timeout);
+		ps.setBooleanProperty(name, value);
+		System.out.println(name + "=" + value);
+	}
+	
+	/**
+	 * Returns boolean property of message. Property set with other type is
+	 * converted as defined in JMS specs.
+	 * 
+	 * Arguments:
+	 * - _name_: name of the property
+	 */
+	public boolean getBooleanProperty(String name) throws Exception {
+		ProviderSession ps = providerConnection.getProviderSession();
+		boolean value = ps.getBooleanProperty(name);
+		System.out.println(name + "=" + value);
+		
+		return value;
+	}
+	
+	/**
+	 * Sets several properties for message in one call. Strings, booleans,
+	 * integers and floating point numbers keep their types, other values are
+	 * set as strings. Byte values are not supported as properties.
+	 * 
+	 * Argument:
+	 * - _values_: properties as named arguments or dictionary
+	 * 
+	 * Examples:
+	 * | Set Properties | customer=Matti | amount=${100} | paid=${True} |
+	 * | Set Properties | &{properties} |
+	 */
+	public void setProperties(Map<String, Object> values) throws Exception {
+		ProviderSession ps = providerConnection.getProviderSession();
+		ps.setProperties(values);
+		System.out.println(values);
+	}
+	
+	/**
+	 * Returns all properties of message as dictionary with typed values.
+	 * 
+	 * Example:
+	 * | ${properties}= | Get All Properties |
+	 * | Should Be Equal | ${properties['amount']} | ${100} |
+	 */
+	public Map<String, Object> getAllProperties() throws Exception {
+		ProviderSession ps = providerConnection.getProviderSession();
+		Map<String, Object> properties = ps.getAllProperties();
+		System.out.println(properties);
+		
+		return properties;
+	}
+	
+	/**
+	 * Returns JMSMessageID.
+	 */
+	public String getJmsMessageId() throws JMSException {
+		ProviderSession ps = providerConnection.getProviderSession();
+		String id = ps.getJmsMessageId();
+		System.out.println("MessageId=" + id);
+		
+		return id;
+	}
+	
+	/**
+	 * Receives using the consumer. The message is set to internal message
+	 * object and its body and properties can be accessed via methods.
+	 * 
+	 * `Init Queue Consumer`, `Init Topic Consumer` or `Init Durable Subscriber`
+	 * must have been called before this.
+	 * 
+	 * Fails if message is not available.
+	 */
+	public void receive() throws Exception {
+		ProviderSession ps = consumingSession();
+		ps.receive();
+	}
+	
+	/**
+	 * Similar as plain Receive but with additional timeout argument.
+	 * 
+	 * Argument:
+	 * - _timeout_: receive timeout in milliseconds
+	 */
+	public void receive(long timeout) throws Exception {
+		ProviderSession ps = consumingSession();
+		ps.receive(timeout);
+	}
+	
+	/**
+	 * Sends message to queue. The message must have been created beforehand
+	 * using one of the create message methods. Message id can be accessed after
+	 * sending.
+	 */
+	public void sendToQueue(String queue) throws Exception {
+		ProviderSession ps = providerConnection.getProviderSession();
+		ps.sendToQueue(queue);
+	}
+	
+	/**
+	 * Receives message from queue. Local MessageConsumer is created on the fly
+	 * and closed after receiving. Acknowledges or commits depending on the
+	 * session configuration. This can be called without preceding `Init
+	 * Queue Consumer` keyword and there is no need to close the consumer with
+	 * `Close Consumer` keyword. The message is set to internal message object
+	 * and its body and properties can be accessed via methods.
+	 * 
+	 * Fails if message is not available.
+	 */
+	public void receiveOnceFromQueue(String queue) throws Exception {
+		ProviderSession ps = consumingSession();
+		ps.receiveOnceFromQueue(queue);
+	}
+	
+	/**
+	 * Similar as Receive Once From Queue but with additional timeout argument.
+	 * 
+	 * Arguments:
+	 * - _queue_: name of the queue
+	 * - _timeout_: receive timeout in milliseconds
+	 */
+	public void receiveOnceFromQueue(String queue, long timeout) throws Exception {
+		ProviderSession ps = consumingSession();
+		ps.receiveOnceFromQueue(queue, timeout);
+	}
+	
+	/**
+	 * Receives message matching the selector from queue. Messages not
+	 * matching are left in the queue. Otherwise similar as `Receive Once From
+	 * Queue`. With `Enable Consumer Cache` one consumer is kept per queue,
+	 * so switching to a different selector on the same queue closes the
+	 * cached consumer and creates a new one.
+	 * 
+	 * Arguments:
+	 * - _queue_: name of the queue
+	 * - _selector_: message selector, refer JMS specs
+	 * - _timeout_: receive timeout in milliseconds, 100 by default
+	 * 
+	 * Example:
+	 * | Receive Once From Queue With Selector | ${QUEUE} | JMSType = 'order' AND amount > 100 |
+	 */
+	public void receiveOnceFromQueueWithSelector(String queue, String selector) throws Exception {
+		receiveOnceFromQueueWithSelector(queue, selector, ProviderSession.DEFAULT_RECEIVE_TIMEOUT);
+	}
+	
+	public void receiveOnceFromQueueWithSelector(String queue, String selector, long timeout) throws Exception {
+		ProviderSession ps = consumingSession();
+		ps.receiveOnceFromQueue(queue, timeout, selector);
+	}
+	
+	/**
+	 * Sends the current message to queue as a request and receives the
+	 * reply. JMSReplyTo is set to a temporary queue and JMSCorrelationID to a
+	 * new unique value. The replier is expected to copy the correlation ID
+	 * into the reply, other replies are discarded. Temporary queues and their
+	 * consumers are pooled, so repeated exchanges do not create destinations.
+	 * Replies arriving after timeout are discarded by later exchanges.
+	 * 
+	 * Commits both request and reply if the session is transacted and
+	 * acknowledges the reply in CLIENT_ACKNOWLEDGE mode. The reply becomes
+	 * the current message and its body and properties can be accessed via
+	 * keywords.
+	 * 
+	 * Arguments:
+	 * - _queue_: name of the request queue
+	 * - _timeout_: milliseconds to wait for the reply, 1000 by default
+	 * 
+	 * Returns dictionary with keys:
+	 * - _correlation_id_: correlation ID of the exchange
+	 * - _text_: body of the reply if TextMessage, otherwise None
+	 * - _round_trip_ms_: milliseconds from send to reply
+	 * 
+	 * Fails if reply is not received within timeout.
+	 * 
+	 * Example:
+	 * | Create Text Message | ping |
+	 * | ${reply}= | Request Reply | ${QUEUE} | 5000 |
+	 * | Should Be Equal | ${reply['text']} | pong |
+	 */
+	public Map<String, Object> requestReply(String queue) throws Exception {
+		return requestReply(queue, 1000);
+	}
+	
+	public Map<String, Object> requestReply(String queue, long timeout) throws Exception {
+		ProviderSession ps = providerConnection.getProviderSession();
+		long elapsed = ps.requestReply(queue, timeout);
+		Message reply = ps.getMessage();
+		Map<String, Object> map = new LinkedHashMap<String, Object>();
+		map.put("correlation_id", reply.getJMSCorrelationID());
+		map.put("text", reply instanceof TextMessage ? ((TextMessage)reply).getText() : null);
+		map.put("round_trip_ms", elapsed / 1000000.0);
+		System.out.println("Reply received from " + queue + " in " + elapsed / 1000000.0 + " ms.");
+		
+		return map;
+	}
+	
+	/**
+	 * Keeps the consumers of `Receive Once From Queue` open between calls,
+	 * one per queue. Saves creating a consumer for every receive and keeps
+	 * the messages prefetched by the provider available for the next call.
+	 * Acknowledging and committing work as without the cache.
+	 * 
+	 * Consumer which has not been used within _idle_timeout_ is closed by
+	 * the next keyword of the connection which receives from, browses or
+	 * clears a queue, so an unused consumer does not keep its prefetched
+	 * messages from them. Receiving from the
+	 * queue with a different selector closes the cached consumer before a
+	 * new one is created. Cached consumer of the queue is closed also by
+	 * `Clear Queue Once` and `Init Queue Consumer`, and all of them by
+	 * `Disable Consumer Cache` and when session is closed. Messages
+	 * prefetched by a closed consumer are returned to the provider.
+	 * 
+	 * Argument:
+	 * - _idle_timeout_: milliseconds, 60000 by default
+	 */
+	public void enableConsumerCache() throws JMSException {
+		enableConsumerCache(60000);
+	}
+	
+	public void enableConsumerCache(long idleTimeout) throws JMSException {
+		ProviderSession ps = providerConnection.getProviderSession();
+		ps.enableConsumerCache(idleTimeout);
+	}
+	
+	/**
+	 * Closes the consumers cached by `Enable Consumer Cache`. `Receive Once
+	 * From Queue` creates a consumer for each call after this.
+	 */
+	public void disableConsumerCache() throws JMSException {
+		ProviderSession ps = providerConnection.getProviderSession();
+		ps.disableConsumerCache();
 	}
 	
 	/**
@@ -562,6 +1260,292 @@ public class JMSLibrary {
 		ps.sendToTopic(topic);
 	}
 	
+	/**
+	 * Sends the current message to queue several times. Faster than looping
+	 * `Send To Queue` in test data.
+	 * 
+	 * Arguments:
+	 * - _queue_: name of the queue
+	 * - _count_: how many times the message is sent
+	 * - _commit_batch_: in SESSION_TRANSACTED mode commits after every
+	 *   _commit_batch_ messages and after the last message. 0 (default) leaves
+	 *   committing to the test.
+	 * - _sequence_property_: optional name of long property which is set to
+	 *   the sequence number (1, 2, ...) of each message
+	 * 
+	 * Returns dictionary with keys count, elapsed_ms and rate (messages per
+	 * second).
+	 * 
+	 * Example:
+	 * | Create Text Message | ${TEXT} |
+	 * | ${result}= | Send Messages To Queue | ${QUEUE} | 100000 | 1000 | seq |
+	 */
+	public Map<String, Object> sendMessagesToQueue(String queue, int count) throws Exception {
+		return sendMessagesToQueue(queue, count, 0, null);
+	}
+	
+	public Map<String, Object> sendMessagesToQueue(String queue, int count, int commitBatch) throws Exception {
+		return sendMessagesToQueue(queue, count, commitBatch, null);
+	}
+	
+	public Map<String, Object> sendMessagesToQueue(String queue, int count, int commitBatch, String sequenceProperty) throws Exception {
+		ProviderSession ps = providerConnection.getProviderSession();
+		Measurement m = ps.sendMessagesToQueue(queue, count, commitBatch, sequenceProperty);
+		System.out.println(m.getCount() + " messages sent to " + queue + " in " + m.getElapsedMillis() + " ms (" + m.getRate() + " msg/s).");
+		
+		return m.toMap();
+	}
+	
+	/**
+	 * Sends the current message to topic several times. Arguments are same
+	 * as in `Send Messages To Queue`.
+	 */
+	public Map<String, Object> sendMessagesToTopic(String topic, int count) throws Exception {
+		return sendMessagesToTopic(topic, count, 0, null);
+	}
+	
+	public Map<String, Object> sendMessagesToTopic(String topic, int count, int commitBatch) throws Exception {
+		return sendMessagesToTopic(topic, count, commitBatch, null);
+	}
+	
+	public Map<String, Object> sendMessagesToTopic(String topic, int count, int commitBatch, String sequenceProperty) throws Exception {
+		ProviderSession ps = providerConnection.getProviderSession();
+		Measurement m = ps.sendMessagesToTopic(topic, count, commitBatch, sequenceProperty);
+		System.out.println(m.getCount() + " messages sent to " + topic + " in " + m.getElapsedMillis() + " ms (" + m.getRate() + " msg/s).");
+		
+		return m.toMap();
+	}
+	
+	/**
+	 * Sends TextMessages rendered from template file, see `Create Text
+	 * Message From Template`. Each message gets the next sequence number,
+	 * a new UUID and timestamp. The template is parsed only once and the
+	 * same message is reused for all sends. Transacted session must be
+	 * committed by the caller.
+	 * 
+	 * Arguments:
+	 * - _type_: queue or topic
+	 * - _destination_: name of the queue or topic
+	 * - _file_: template file
+	 * - _count_: how many messages are sent
+	 * - _values_: values of the placeholders as named arguments
+	 * 
+	 * Returns dictionary with keys count, bytes (characters of the bodies),
+	 * elapsed_ms, rate and byte_rate.
+	 * 
+	 * Example:
+	 * | ${result}= | Send Text Messages From Template | queue | ${QUEUE} | ${CURDIR}/order.xml | 10000 | customer=Matti |
+	 */
+	public Map<String, Object> sendTextMessagesFromTemplate(String type, String destination, String file, int count, Map<String, String> values) throws Exception {
+		return sendMessagesFromTemplate(type, destination, file, null, count, values);
+	}
+	
+	/**
+	 * Sends BytesMessages rendered from template file. Similar as `Send Text
+	 * Messages From Template`, bodies are encoded in the charset.
+	 * 
+	 * Arguments:
+	 * - _type_: queue or topic
+	 * - _destination_: name of the queue or topic
+	 * - _file_: template file
+	 * - _charset_: target character set
+	 * - _count_: how many messages are sent
+	 * - _values_: values of the placeholders as named arguments
+	 */
+	public Map<String, Object> sendBytesMessagesFromTemplate(String type, String destination, String file, String charset, int count, Map<String, String> values) throws Exception {
+		return sendMessagesFromTemplate(type, destination, file, charset, count, values);
+	}
+	
+	private Map<String, Object> sendMessagesFromTemplate(String type, String destination, String file, String charset, int count, Map<String, String> values) throws Exception {
+		ProviderSession ps = providerConnection.getProviderSession();
+		Measurement m = ps.sendMessagesFromTemplate(type, destination, file, charset, count, 0, values);
+		System.out.println(m.getCount() + " messages sent to " + destination + " in " + m.getElapsedMillis() + " ms (" + m.getRate() + " msg/s).");
+		
+		return m.toMap();
+	}
+	
+	/**
+	 * Sends TextMessages from several threads. Each thread opens its own
+	 * session and producer on the current connection, so the connection
+	 * must be started. Producers use the delivery mode, priority and time to
+	 * live of the session's producer. All messages have the same text, use
+	 * `Generate Load From Template` to send messages rendered from a
+	 * template.
+	 * 
+	 * Sending stops when _count_ messages have been sent or _duration_ has
+	 * elapsed, whichever comes first. At least one of them must be given.
+	 * 
+	 * Arguments:
+	 * - _type_: queue or topic
+	 * - _destination_: name of the queue or topic
+	 * - _text_: message body
+	 * 
+	 * Optional settings:
+	 * - _threads_: count of sending threads, 1 by default
+	 * - _count_: total count of messages
+	 * - _rate_: target messages per second of all threads, unlimited by default
+	 * - _duration_: milliseconds
+	 * 
+	 * Returns dictionary with keys count (sent messages), errors, elapsed_ms
+	 * and rate (achieved messages per second).
+	 * 
+	 * Examples:
+	 * | ${result}= | Generate Load | queue | ${QUEUE} | ${TEXT} | threads=8 | count=100000 |
+	 * | ${result}= | Generate Load | topic | ${TOPIC} | ${TEXT} | threads=2 | rate=500 | duration=60000 |
+	 */
+	public Map<String, Object> generateLoad(String type, String destination, String text, Map<String, String> settings) throws Exception {
+		return generateLoad(new LoadGenerator(providerConnection, type, destination, text), destination, settings);
+	}
+	
+	/**
+	 * Like `Generate Load`, but each message is rendered from template file,
+	 * see `Create Text Message From Template`. Every message gets the next
+	 * sequence number of the template (unique across the threads), a new
+	 * UUID and timestamp. Template is parsed once and each thread reuses
+	 * its own message and buffers.
+	 * 
+	 * Arguments:
+	 * - _type_: queue or topic
+	 * - _destination_: name of the queue or topic
+	 * - _file_: template file
+	 * 
+	 * Optional settings are those of `Generate Load` and
+	 * - _charset_: sends BytesMessages with the body encoded in the charset,
+	 *   TextMessages by default
+	 * 
+	 * Other named arguments are values of the placeholders.
+	 * 
+	 * Example:
+	 * | ${result}= | Generate Load From Template | queue | ${QUEUE} | ${CURDIR}/order.xml | threads=4 | count=10000 | customer=Matti |
+	 */
+	public Map<String, Object> generateLoadFromTemplate(String type, String destination, String file, Map<String, String> settings) throws Exception {
+		Map<String, String> values = new LinkedHashMap<String, String>();
+		Map<String, String> loadSettings = new LinkedHashMap<String, String>();
+		String charset = null;
+		if (settings != null) {
+			for (Map.Entry<String, String> e : settings.entrySet()) {
+				String key = e.getKey();
+				if (key.equals(Options.SETTINGS_KW_CHARSET)) {
+					charset = e.getValue();
+				} else if (key.equals(Options.SETTINGS_KW_THREADS) || key.equals(Options.SETTINGS_KW_COUNT) || key.equals(Options.SETTINGS_KW_RATE) || key.equals(Options.SETTINGS_KW_DURATION)) {
+					loadSettings.put(key, e.getValue());
+				} else {
+					values.put(key, e.getValue());
+				}
+			}
+		}
+		LoadGenerator generator = new LoadGenerator(providerConnection, type, destination, null);
+		generator.setTemplate(MessageTemplate.load(file, Options.DEFAULT_CHARSET), charset, values);
+		
+		return generateLoad(generator, destination, loadSettings);
+	}
+	
+	private Map<String, Object> generateLoad(LoadGenerator generator, String destination, Map<String, String> settings) throws Exception {
+		ProviderSession ps = providerConnection.getProviderSession();
+		if (settings != null) {
+			if (settings.containsKey(Options.SETTINGS_KW_THREADS)) {
+				generator.setThreads(Integer.parseInt(settings.get(Options.SETTINGS_KW_THREADS)));
+			}
+			if (settings.containsKey(Options.SETTINGS_KW_COUNT)) {
+				generator.setCount(Long.parseLong(settings.get(Options.SETTINGS_KW_COUNT)));
+			}
+			if (settings.containsKey(Options.SETTINGS_KW_RATE)) {
+				generator.setRate(Double.parseDouble(settings.get(Options.SETTINGS_KW_RATE)));
+			}
+			if (settings.containsKey(Options.SETTINGS_KW_DURATION)) {
+				generator.setDuration(Long.parseLong(settings.get(Options.SETTINGS_KW_DURATION)));
+			}
+		}
+		if (ps != null) {
+			generator.setProducerSettings(ps.getProducer().getDeliveryMode(), ps.getProducer().getPriority(), ps.getProducer().getTimeToLive());
+		}
+		Measurement m = generator.run();
+		Map<String, Object> result = m.toMap();
+		result.put("errors", generator.getErrors());
+		System.out.println(m.getCount() + " messages sent to " + destination + " in " + m.getElapsedMillis() + " ms (" + m.getRate() + " msg/s), " + generator.getErrors() + " errors.");
+		
+		return result;
+	}
+	
+	/**
+	 * Sends messages to the destination and receives them at the same time
+	 * on another session of the current connection. Both sessions are opened
+	 * for the run only, so the connection must be started. Messages are bytes
+	 * messages, producer uses the delivery mode, priority and time to live of
+	 * the session's producer.
+	 * 
+	 * Arguments:
+	 * - _type_: queue or topic
+	 * - _destination_: name of the queue or topic, should be empty
+	 * 
+	 * Optional settings:
+	 * - _count_: messages to send, 10000 by default
+	 * - _size_: body bytes, 1024 by default
+	 * - _timeout_: milliseconds the whole run may take, 60000 by default
+	 * 
+	 * Returns dictionary with keys count (sent), received, size,
+	 * producer_rate and consumer_rate (messages/s), elapsed_ms (until the
+	 * last receive), drain_ms (from the last send to the last receive) and
+	 * latency (dictionary as in `Get Latency Percentiles`).
+	 * 
+	 * Example:
+	 * | ${result}= | Measure Throughput | queue | ${QUEUE} | count=50000 | size=2048 |
+	 * | Throughput Should Be Above | 5000 msg/s |
+	 * | Should Be True | ${result['latency']['p99']} < 20 |
+	 */
+	public Map<String, Object> measureThroughput(String type, String destination, Map<String, String> settings) throws Exception {
+		ThroughputRun run = new ThroughputRun(providerConnection, type, destination);
+		if (settings != null) {
+			if (settings.containsKey(Options.SETTINGS_KW_COUNT)) {
+				run.setCount(Long.parseLong(settings.get(Options.SETTINGS_KW_COUNT)));
+			}
+			if (settings.containsKey(Options.SETTINGS_KW_SIZE)) {
+				run.setSize(Integer.parseInt(settings.get(Options.SETTINGS_KW_SIZE)));
+			}
+			if (settings.containsKey(Options.SETTINGS_KW_TIMEOUT)) {
+				run.setTimeout(Long.parseLong(settings.get(Options.SETTINGS_KW_TIMEOUT)));
+			}
+		}
+		ProviderSession ps = providerConnection.getProviderSession();
+		if (ps != null) {
+			run.setProducerSettings(ps.getProducer().getDeliveryMode(), ps.getProducer().getPriority(), ps.getProducer().getTimeToLive());
+		}
+		throughputRun = null;
+		run.run();
+		throughputRun = run;
+		Map<String, Object> result = run.toMap();
+		System.out.println(result);
+		
+		return result;
+	}
+	
+	/**
+	 * Fails if messages of the latest `Measure Throughput` were lost or
+	 * the consumer rate was below the given rate. Consumer rate covers the
+	 * whole run until the last message was received.
+	 * 
+	 * Arguments:
+	 * - _rate_: messages per second, optionally followed by msg/s
+	 * 
+	 * Example:
+	 * | Throughput Should Be Above | 5000 msg/s |
+	 */
+	public void throughputShouldBeAbove(String rate) throws Exception {
+		if (throughputRun == null) {
+			throw new Exception("Throughput is not measured.");
+		}
+		String value = rate.replace("msg/s", "").trim();
+		double expected = Double.parseDouble(value);
+		long received = throughputRun.getConsumed().getCount();
+		if (received < throughputRun.getCount()) {
+			throw new Exception("Only " + received + " of " + throughputRun.getCount() + " messages received.");
+		}
+		double actual = throughputRun.getConsumed().getRate();
+		if (actual <= expected) {
+			throw new Exception(String.format("Throughput %.1f msg/s is not above %s msg/s.", actual, value));
+		}
+	}
+	
 	/**
 	 * (Re)initializes the consumer as queue receiver. Previous consumer is
 	 * closed before. Receive can be called after.
@@ -570,11 +1554,28 @@ public class JMSLibrary {
 	 * - _queue_: name of the queue
 	 */
 	public void initQueueConsumer(String queue) throws JMSException {
-		ProviderSession ps = providerConnection.getProviderSession();
+		ProviderSession ps = consumingSession();
 		ps.initializeQueueConsumer(queue);
 		System.out.println("Consumer initialized for " + queue + ".");
 	}
 	
+	/**
+	 * Similar as `Init Queue Consumer` but receives only messages matching
+	 * the selector.
+	 * 
+	 * Arguments:
+	 * - _queue_: name of the queue
+	 * - _selector_: message selector, refer JMS specs
+	 * 
+	 * Example:
+	 * | Init Queue Consumer With Selector | ${QUEUE} | JMSCorrelationID = '${id}' |
+	 */
+	public void initQueueConsumerWithSelector(String queue, String selector) throws JMSException {
+		ProviderSession ps = consumingSession();
+		ps.initializeQueueConsumer(queue, selector);
+		System.out.println("Consumer initialized for " + queue + " with selector " + selector + ".");
+	}
+	
 	/**
 	 * (Re)initializes the consumer as topic subscriber. Previous consumer is
 	 * closed before. Receive can be called after.
@@ -582,10 +1583,128 @@ public class JMSLibrary {
 	 * Argument:
 	 * - _topic_: name of the topic
 	 */
-	public void initTopicConsumer(String topic) throws JMSException {
+	public void initTopicConsumer(String topic) throws JMSException {
+		ProviderSession ps = providerConnection.getProviderSession();
+		ps.initializeTopicConsumer(topic);
+		System.out.println("Consumer initialized for " + topic + ".");
+	}
+	
+	/**
+	 * Similar as `Init Topic Consumer` but receives only messages matching
+	 * the selector.
+	 * 
+	 * Arguments:
+	 * - _topic_: name of the topic
+	 * - _selector_: message selector, refer JMS specs
+	 */
+	public void initTopicConsumerWithSelector(String topic, String selector) throws JMSException {
+		ProviderSession ps = providerConnection.getProviderSession();
+		ps.initializeTopicConsumer(topic, selector);
+		System.out.println("Consumer initialized for " + topic + " with selector " + selector + ".");
+	}
+	
+	/**
+	 * Starts collecting messages of the consumer in background. Messages are
+	 * delivered by the provider as soon as they arrive and kept in a buffer,
+	 * so they are not lost while the test is doing something else. Read them
+	 * with `Wait For Messages`, `Receive Captured Message` and `Get Captured
+	 * Messages`.
+	 * 
+	 * `Init Queue Consumer`, `Init Topic Consumer` or `Init Durable Subscriber`
+	 * must have been called before, and connection must be started. Messages
+	 * are consumed in a separate session of the connection, so the current
+	 * session can be used for sending and committing while capturing. The
+	 * consumer of the current session is closed until `Stop Message Capture`,
+	 * so `Receive` and `Clear` cannot be used with it meanwhile. Capture
+	 * session has the acknowledge mode of the current session
+	 * (AUTO_ACKNOWLEDGE if transacted); in AUTO_ACKNOWLEDGE mode messages are
+	 * acknowledged when they are buffered.
+	 * 
+	 * Argument:
+	 * - _capacity_: maximum count of buffered messages, 10000 by default.
+	 *   Messages arriving when the buffer is full are dropped.
+	 * 
+	 * Example:
+	 * | Init Topic Consumer | ${TOPIC} |
+	 * | Start Message Capture |
+	 * | Send To Topic | ${TOPIC} |
+	 * | Wait For Messages | 1 | 5000 |
+	 * | Receive Captured Message |
+	 * | Stop Message Capture |
+	 */
+	public void startMessageCapture() throws Exception {
+		startMessageCapture(10000);
+	}
+	
+	public void startMessageCapture(int capacity) throws Exception {
+		ProviderSession ps = providerConnection.getProviderSession();
+		ps.startCapture(providerConnection, capacity);
+	}
+	
+	/**
+	 * Stops collecting messages and returns the consumer to the current
+	 * session. Already collected messages can still be read.
+	 */
+	public void stopMessageCapture() throws Exception {
+		ProviderSession ps = providerConnection.getProviderSession();
+		ps.stopCapture();
+		MessageCapture capture = ps.getCapture();
+		System.out.println(capture.getCaptured() + " messages captured, " + capture.getDropped() + " dropped.");
+	}
+	
+	/**
+	 * Waits until at least _count_ captured messages are available. Returns
+	 * as soon as they are. Fails if they are not available within _timeout_.
+	 * 
+	 * Arguments:
+	 * - _count_: count of messages
+	 * - _timeout_: milliseconds
+	 */
+	public void waitForMessages(int count, long timeout) throws Exception {
+		ProviderSession ps = providerConnection.getProviderSession();
+		if (!ps.waitForMessages(count, timeout)) {
+			throw new Exception("Expected " + count + " messages, got " + ps.getCapture().size() + ".");
+		}
+	}
+	
+	/**
+	 * Takes the first captured message as current message, its body and
+	 * properties can be accessed via methods. Waits for message if none is
+	 * available.
+	 * 
+	 * Fails if message is not available.
+	 * 
+	 * Argument:
+	 * - _timeout_: milliseconds, 100 by default
+	 */
+	public void receiveCapturedMessage() throws Exception {
+		receiveCapturedMessage(100);
+	}
+	
+	public void receiveCapturedMessage(long timeout) throws Exception {
+		ProviderSession ps = providerConnection.getProviderSession();
+		ps.receiveCaptured(timeout);
+	}
+	
+	/**
+	 * Removes all captured messages and returns their bodies as list. Body of
+	 * TextMessage is returned as text, other message types as None. Use
+	 * `Receive Captured Message` to access other types.
+	 */
+	public List<String> getCapturedMessages() throws Exception {
 		ProviderSession ps = providerConnection.getProviderSession();
-		ps.initializeTopicConsumer(topic);
-		System.out.println("Consumer initialized for " + topic + ".");
+		List<Message> messages = ps.getCapturedMessages();
+		List<String> bodies = new ArrayList<String>(messages.size());
+		for (Message m : messages) {
+			if (m instanceof TextMessage) {
+				bodies.add(((TextMessage)m).getText());
+			} else {
+				bodies.add(null);
+			}
+		}
+		System.out.println(bodies.size() + " captured messages.");
+		
+		return bodies;
 	}
 	
 	/**
@@ -609,6 +1728,21 @@ public class JMSLibrary {
 		ps.initializeDurableSubscriber(topic, name);
 	}
 	
+	/**
+	 * Similar as `Init Durable Subscriber` but the subscription receives only
+	 * messages matching the selector. Initializing an existing subscription
+	 * with a different selector replaces the subscription and its messages.
+	 * 
+	 * Arguments:
+	 * - _topic_: topic name
+	 * - _name_: subscription name
+	 * - _selector_: message selector, refer JMS specs
+	 */
+	public void initDurableSubscriberWithSelector(String topic, String name, String selector) throws JMSException {
+		ProviderSession ps = providerConnection.getProviderSession();
+		ps.initializeDurableSubscriber(topic, name, selector);
+	}
+	
 	/**
 	 * Unsubscribes a durable subscription.
 	 * 
@@ -651,7 +1785,67 @@ public class JMSLibrary {
 	}
 	
 	/**
-	 * Returns the body of BytesMessage as String.
+	 * Returns all entries of MapMessage as dictionary with typed values.
+	 * 
+	 * Example:
+	 * | ${values}= | Get Map Message Values |
+	 * | Should Be Equal As Integers | ${values['amount']} | 100 |
+	 */
+	public Map<String, Object> getMapMessageValues() throws Exception {
+		ProviderSession ps = providerConnection.getProviderSession();
+		
+		return ps.getMapValues();
+	}
+	
+	/**
+	 * Fails if MapMessage does not contain the entry, or its value as
+	 * string is not _expected_.
+	 * 
+	 * Arguments:
+	 * - _name_: name of the entry
+	 * - _expected_: expected value, not checked if not given
+	 * 
+	 * Example:
+	 * | Map Message Should Contain | amount | 100 |
+	 */
+	public void mapMessageShouldContain(String name) throws Exception {
+		mapMessageShouldContain(name, null);
+	}
+	
+	public void mapMessageShouldContain(String name, String expected) throws Exception {
+		ProviderSession ps = providerConnection.getProviderSession();
+		MapMessage message = (MapMessage)ps.getMessage();
+		if (!message.itemExists(name)) {
+			throw new Exception("Map message does not contain '" + name + "'.");
+		}
+		String actual = String.valueOf(message.getObject(name));
+		if (expected != null && !expected.equals(actual)) {
+			throw new Exception("Value of '" + name + "' is '" + actual + "', expected '" + expected + "'.");
+		}
+	}
+	
+	/**
+	 * Returns all values of StreamMessage as list with typed values. The
+	 * stream is read from the beginning.
+	 */
+	public List<Object> getStreamMessageValues() throws Exception {
+		ProviderSession ps = providerConnection.getProviderSession();
+		
+		return ps.getStreamValues();
+	}
+	
+	/**
+	 * Returns the body of ObjectMessage.
+	 */
+	public Object getObject() throws Exception {
+		ProviderSession ps = providerConnection.getProviderSession();
+		
+		return ps.getObject();
+	}
+	
+	/**
+	 * Returns the body of BytesMessage as String. The body is read from the
+	 * beginning, so it can be returned more than once.
 	 * 
 	 * Argument:
 	 * - _charset_: character set of the binary body
@@ -662,15 +1856,63 @@ public class JMSLibrary {
 		return ps.getBytesAsString(charset);
 	}
 	
+	/**
+	 * Fails if the body of BytesMessage does not contain _text_. The body is
+	 * decoded in small pieces and reading stops at the first occurrence, so
+	 * this works also with bodies too large to be returned by `Get Bytes As
+	 * String`. The body is read from the beginning.
+	 * 
+	 * Arguments:
+	 * - _text_: text to search
+	 * - _charset_: character set of the binary body
+	 */
+	public void bytesBodyShouldContain(String text, String charset) throws Exception {
+		ProviderSession ps = providerConnection.getProviderSession();
+		if (ps.countInBytes(text, charset, 1) == 0) {
+			throw new Exception("Body does not contain '" + text + "'.");
+		}
+	}
+	
+	/**
+	 * Fails if the body of BytesMessage contains _text_. Arguments are same
+	 * as in `Bytes Body Should Contain`.
+	 */
+	public void bytesBodyShouldNotContain(String text, String charset) throws Exception {
+		ProviderSession ps = providerConnection.getProviderSession();
+		if (ps.countInBytes(text, charset, 1) > 0) {
+			throw new Exception("Body contains '" + text + "'.");
+		}
+	}
+	
+	/**
+	 * Returns count of non-overlapping occurrences of _text_ in the body of
+	 * BytesMessage. The body is decoded in small pieces and read from the
+	 * beginning.
+	 * 
+	 * Arguments:
+	 * - _text_: text to search
+	 * - _charset_: character set of the binary body
+	 */
+	public long countInBytesBody(String text, String charset) throws Exception {
+		ProviderSession ps = providerConnection.getProviderSession();
+		long count = ps.countInBytes(text, charset, 0);
+		System.out.println("'" + text + "' found " + count + " times.");
+		
+		return count;
+	}
+	
 	/**
 	 * Writes body of BytesMessage into file. Overwrites if the file exists.
+	 * Body is copied through a buffer of the size set by `Set Buffer Size`.
 	 * 
 	 * Arguments:
 	 * - _file_: target file name
+	 * 
+	 * Returns dictionary with keys bytes, elapsed_ms and byte_rate (bytes
+	 * per second).
 	 */
-	public void writeBytesToFile(String file) throws JMSException, IOException {
-		ProviderSession ps = providerConnection.getProviderSession();
-		ps.writeBytes(file, false);
+	public Map<String, Object> writeBytesToFile(String file) throws JMSException, IOException {
+		return writeBytesToFile(file, false);
 	}
 	
 	/**
@@ -680,22 +1922,206 @@ public class JMSLibrary {
 	 * - _file_: target file name
 	 * - _append_: true or false
 	 */
-	public void writeBytesToFile(String file, boolean append) throws JMSException, IOException {
+	public Map<String, Object> writeBytesToFile(String file, boolean append) throws JMSException, IOException {
+		ProviderSession ps = providerConnection.getProviderSession();
+		Measurement m = ps.writeBytes(file, append);
+		System.out.println(m.getBytes() + " bytes in " + m.getElapsedMillis() + " ms (" + m.getByteRate() + " bytes/s).");
+		
+		return m.toMap();
+	}
+	
+	/**
+	 * Consumes all messages from queue into a message log file. Headers,
+	 * properties and body of text and bytes messages are logged (other
+	 * message types without body). Messages are appended, so the same file
+	 * can collect several captures. Stops when no message arrives within
+	 * _idle_timeout_ or when _timeout_ has elapsed. Commits or acknowledges
+	 * every 100 messages and after the last one, after writing them.
+	 * 
+	 * The file is replayed by `Replay Messages From File`.
+	 * 
+	 * Arguments:
+	 * - _queue_: name of the queue
+	 * - _file_: message log file, created if missing
+	 * - _timeout_: milliseconds, 0 (default) for no limit
+	 * - _idle_timeout_: milliseconds, 100 by default
+	 * 
+	 * Returns count of captured messages. Count, bytes and duration are
+	 * logged.
+	 * 
+	 * Example:
+	 * | ${c}= | Capture Queue To File | ${QUEUE} | ${OUTPUT_DIR}/queue.log | 60000 |
+	 */
+	public long captureQueueToFile(String queue, String file) throws Exception {
+		return captureQueueToFile(queue, file, 0, ProviderSession.DEFAULT_RECEIVE_TIMEOUT);
+	}
+	
+	public long captureQueueToFile(String queue, String file, long timeout) throws Exception {
+		return captureQueueToFile(queue, file, timeout, ProviderSession.DEFAULT_RECEIVE_TIMEOUT);
+	}
+	
+	public long captureQueueToFile(String queue, String file, long timeout, long idleTimeout) throws Exception {
+		ProviderSession ps = consumingSession();
+		Measurement m = ps.captureQueueToFile(queue, file, timeout, idleTimeout);
+		System.out.println(m.getCount() + " messages (" + m.getBytes() + " bytes) captured from " + queue + " in " + m.getElapsedMillis() + " ms.");
+		
+		return m.getCount();
+	}
+	
+	/**
+	 * Sends the messages of a message log file written by `Capture Queue To
+	 * File` to a queue or topic. The file is read one message at a time.
+	 * Body, properties, JMSCorrelationID, JMSType and JMSReplyTo are
+	 * replayed; delivery mode, priority and time to live are those of the
+	 * session's producer. Provider set JMSX properties and the send time of
+	 * latency measurement are not replayed.
+	 * 
+	 * Messages are sent in the original timing of their JMSTimestamp,
+	 * multiplied by _speed_. Speed 0 sends as fast as possible.
+	 * 
+	 * Arguments:
+	 * - _file_: message log file
+	 * - _type_: queue or topic
+	 * - _destination_: name of the queue or topic
+	 * 
+	 * Optional settings:
+	 * - _speed_: multiple of the original rate, 1 by default, 0 is maximum
+	 * - _rate_: messages per second at most, unlimited by default
+	 * - _commit_batch_: messages per commit in transacted session. By default the session is committed only after the last message.
+	 * 
+	 * Returns dictionary with keys count, bytes (read from the file),
+	 * elapsed_ms, rate (achieved messages per second) and timing error
+	 * statistics timing_error_mean, timing_error_p99 and timing_error_max,
+	 * which are delays of sends from the original timing in milliseconds.
+	 * 
+	 * Examples:
+	 * | ${result}= | Replay Messages From File | ${OUTPUT_DIR}/queue.log | queue | ${QUEUE} |
+	 * | ${result}= | Replay Messages From File | ${OUTPUT_DIR}/queue.log | topic | ${TOPIC} | speed=10 | rate=1000 |
+	 */
+	public Map<String, Object> replayMessagesFromFile(String file, String type, String destination, Map<String, String> settings) throws Exception {
+		double speed = 1;
+		double rate = 0;
+		int commitBatch = 0;
+		if (settings != null) {
+			if (settings.containsKey(Options.SETTINGS_KW_SPEED)) {
+				speed = Double.parseDouble(settings.get(Options.SETTINGS_KW_SPEED));
+			}
+			if (settings.containsKey(Options.SETTINGS_KW_RATE)) {
+				rate = Double.parseDouble(settings.get(Options.SETTINGS_KW_RATE));
+			}
+			if (settings.containsKey(Options.SETTINGS_KW_COMMIT_BATCH)) {
+				commitBatch = Integer.parseInt(settings.get(Options.SETTINGS_KW_COMMIT_BATCH));
+			}
+		}
 		ProviderSession ps = providerConnection.getProviderSession();
-		ps.writeBytes(file, append);
+		Replay replay = ps.replay(file, type, destination, speed, rate, commitBatch);
+		Measurement m = replay.getMeasurement();
+		LatencyHistogram error = replay.getTimingError();
+		Map<String, Object> result = m.toMap();
+		result.put("timing_error_mean", error.getMean() / 1000.0);
+		result.put("timing_error_p99", error.getValueAtPercentile(99) / 1000.0);
+		result.put("timing_error_max", error.getMax() / 1000.0);
+		System.out.println(m.getCount() + " messages replayed to " + destination + " in " + m.getElapsedMillis() + " ms (" + m.getRate() + " msg/s), timing error max " + error.getMax() / 1000.0 + " ms.");
+		
+		return result;
 	}
 	
 	/**
 	 * Returns queue depth. Implemented using QueueBrowser.
 	 */
 	public int queueDepth(String queue) throws Exception {
-		ProviderSession ps = providerConnection.getProviderSession();
+		ProviderSession ps = consumingSession();
 		int depth = ps.queueDepth(queue);
 		System.out.println(queue + " depth is " + depth);
 		
 		return depth;
 	}
 	
+	/**
+	 * Fails unless the queue contains a message matching the selector and
+	 * text. Messages are browsed, not consumed, and browsing stops at the
+	 * first match.
+	 * 
+	 * Arguments:
+	 * - _queue_: name of the queue
+	 * - _selector_: message selector, empty selects all
+	 * - _text_: body must contain the text, empty matches all
+	 * - _charset_: character set of bytes message bodies, UTF-8 by default
+	 * 
+	 * Example:
+	 * | Queue Should Contain Message | ${QUEUE} | JMSType = 'order' |
+	 * | Queue Should Contain Message | ${QUEUE} | ${EMPTY} | order-42 |
+	 */
+	public void queueShouldContainMessage(String queue, String selector) throws Exception {
+		queueShouldContainMessage(queue, selector, null);
+	}
+	
+	public void queueShouldContainMessage(String queue, String selector, String text) throws Exception {
+		queueShouldContainMessage(queue, selector, text, Options.DEFAULT_CHARSET);
+	}
+	
+	public void queueShouldContainMessage(String queue, String selector, String text, String charset) throws Exception {
+		ProviderSession ps = consumingSession();
+		if (ps.countInQueue(queue, selector, text, charset, 1) == 0) {
+			throw new Exception("Queue " + queue + " does not contain matching message.");
+		}
+	}
+	
+	/**
+	 * Browses the queue for the first message matching the selector and
+	 * text, and sets it as the current message. The message is not consumed.
+	 * Fails if none matches.
+	 * 
+	 * Arguments are as in `Queue Should Contain Message`.
+	 * 
+	 * Returns JMSMessageID of the found message.
+	 * 
+	 * Example:
+	 * | ${id}= | Find In Queue | ${QUEUE} | orderId = 42 |
+	 * | ${text}= | Get Text |
+	 */
+	public String findInQueue(String queue, String selector) throws Exception {
+		return findInQueue(queue, selector, null);
+	}
+	
+	public String findInQueue(String queue, String selector, String text) throws Exception {
+		return findInQueue(queue, selector, text, Options.DEFAULT_CHARSET);
+	}
+	
+	public String findInQueue(String queue, String selector, String text, String charset) throws Exception {
+		ProviderSession ps = consumingSession();
+		if (!ps.findInQueue(queue, selector, text, charset)) {
+			throw new Exception("Queue " + queue + " does not contain matching message.");
+		}
+		
+		return ps.getMessage().getJMSMessageID();
+	}
+	
+	/**
+	 * Fails unless the queue has at least count messages matching the
+	 * selector. Browsing stops when count is reached, so unlike `Queue Depth`
+	 * large queues are not walked through.
+	 * 
+	 * Arguments:
+	 * - _queue_: name of the queue
+	 * - _count_: minimum count of messages
+	 * - _selector_: message selector, empty selects all (default)
+	 * 
+	 * Example:
+	 * | Queue Depth Should Be At Least | ${QUEUE} | 100 |
+	 */
+	public void queueDepthShouldBeAtLeast(String queue, int count) throws Exception {
+		queueDepthShouldBeAtLeast(queue, count, null);
+	}
+	
+	public void queueDepthShouldBeAtLeast(String queue, int count, String selector) throws Exception {
+		ProviderSession ps = consumingSession();
+		int depth = ps.countInQueue(queue, selector, null, Options.DEFAULT_CHARSET, count);
+		if (depth < count) {
+			throw new Exception("Queue " + queue + " has " + depth + " matching messages, expected at least " + count + ".");
+		}
+	}
+	
 	/**
 	 * Clears the queue by reading all available messages. Acknowledges or
 	 * commits depending on the session configuration.
@@ -710,13 +2136,69 @@ public class JMSLibrary {
 	 * Returns message count that was consumed from the queue.
 	 */
 	public int clearQueueOnce(String queue) throws Exception {
-		ProviderSession ps = providerConnection.getProviderSession();
+		ProviderSession ps = consumingSession();
 		int count = ps.clearQueueOnce(queue);
 		System.out.println(count + " messages consumed from " + queue + ".");
 		
 		return count;
 	}
 	
+	/**
+	 * Clears the queue in batches. Similar as `Clear Queue Once` but commits
+	 * or acknowledges only after every _batch_size_ messages, and after the
+	 * last one. Messages are received without waiting as long as they are
+	 * available, _idle_timeout_ is waited only to detect the end of the
+	 * queue.
+	 * 
+	 * Arguments:
+	 * - _queue_: name of the queue
+	 * - _batch_size_: messages per commit or acknowledge
+	 * - _idle_timeout_: milliseconds, 0 does not wait at all
+	 * 
+	 * Returns message count that was consumed from the queue. Count and
+	 * duration are logged.
+	 * 
+	 * Example:
+	 * | Clear Queue Once | ${QUEUE} | 1000 | 20 |
+	 */
+	public int clearQueueOnce(String queue, int batchSize, long idleTimeout) throws Exception {
+		ProviderSession ps = consumingSession();
+		Measurement m = ps.clearQueueOnce(queue, batchSize, idleTimeout);
+		System.out.println(m.getCount() + " messages consumed from " + queue + " in " + m.getElapsedMillis() + " ms.");
+		
+		return (int)m.getCount();
+	}
+	
+	/**
+	 * Clears messages matching the selector from the queue. Other messages
+	 * are left in the queue. Otherwise similar as `Clear Queue Once`, also
+	 * with the optional _batch_size_ and _idle_timeout_ arguments.
+	 * 
+	 * Arguments:
+	 * - _queue_: name of the queue
+	 * - _selector_: message selector, refer JMS specs
+	 * 
+	 * Returns message count that was consumed from the queue.
+	 * 
+	 * Example:
+	 * | ${c}= | Clear Queue Once With Selector | ${QUEUE} | JMSType = 'test' |
+	 */
+	public int clearQueueOnceWithSelector(String queue, String selector) throws Exception {
+		ProviderSession ps = consumingSession();
+		int count = ps.clearQueueOnce(queue, selector);
+		System.out.println(count + " messages consumed from " + queue + ".");
+		
+		return count;
+	}
+	
+	public int clearQueueOnceWithSelector(String queue, String selector, int batchSize, long idleTimeout) throws Exception {
+		ProviderSession ps = consumingSession();
+		Measurement m = ps.clearQueueOnce(queue, selector, batchSize, idleTimeout);
+		System.out.println(m.getCount() + " messages consumed from " + queue + " in " + m.getElapsedMillis() + " ms.");
+		
+		return (int)m.getCount();
+	}
+	
 	/**
 	 * Clears the destination of the consumer by reading all
 	 * available messages. Does not acknowledge or commit. Cleared messages 
@@ -728,10 +2210,225 @@ public class JMSLibrary {
 	 * Returns message count that was consumed.
 	 */
 	public int clear() throws JMSException {
-		ProviderSession ps = providerConnection.getProviderSession();
+		ProviderSession ps = consumingSession();
 		int count = ps.clear();
 		System.out.println(count + " consumed. ");
 		
 		return count;
 	}
+	
+	/**
+	 * Clears the destination of the consumer in batches. Commits or
+	 * acknowledges after every _batch_size_ messages and after the last one,
+	 * 0 does neither (same as plain `Clear`).
+	 * 
+	 * Arguments:
+	 * - _batch_size_: messages per commit or acknowledge
+	 * - _idle_timeout_: milliseconds to wait before the destination is
+	 *   considered empty
+	 * 
+	 * Returns message count that was consumed. Count and duration are logged.
+	 */
+	public int clear(int batchSize, long idleTimeout) throws JMSException {
+		ProviderSession ps = consumingSession();
+		Measurement m = ps.clear(batchSize, idleTimeout);
+		System.out.println(m.getCount() + " consumed in " + m.getElapsedMillis() + " ms.");
+		
+		return (int)m.getCount();
+	}
+	
+	/**
+	 * Clears several queues and durable subscriptions concurrently. Each
+	 * thread opens its own transacted session on the current connection, so
+	 * the connection must be started. Takes about as long as clearing the
+	 * slowest destination alone.
+	 * 
+	 * Durable subscription is given as durable:_topic_:_subscription_, the
+	 * connection must have the client ID of the subscription and the
+	 * subscription must not be active in other session. Other entries are
+	 * queues.
+	 * 
+	 * Arguments:
+	 * - _destinations_: list of queues and durable subscriptions
+	 * 
+	 * Optional settings:
+	 * - _threads_: maximum count of concurrent sessions, 4 by default
+	 * - _batch_size_: messages per commit, 100 by default
+	 * - _idle_timeout_: milliseconds to wait before a destination is
+	 * considered empty, 100 by default
+	 * 
+	 * Returns dictionary of consumed message count per destination. Fails
+	 * after all destinations are handled if clearing any of them failed.
+	 * 
+	 * Example:
+	 * | @{destinations}= | Create List | ${QUEUE} | ${QUEUE2} | durable:${TOPIC}:${SUBSCRIPTION} |
+	 * | ${counts}= | Clear Queues | ${destinations} | threads=8 |
+	 */
+	public Map<String, Long> clearQueues(List<String> destinations, Map<String, String> settings) throws Exception {
+		ParallelClear clear = new ParallelClear(providerConnection);
+		if (settings != null) {
+			if (settings.containsKey(Options.SETTINGS_KW_THREADS)) {
+				clear.setThreads(Integer.parseInt(settings.get(Options.SETTINGS_KW_THREADS)));
+			}
+			if (settings.containsKey(Options.SETTINGS_KW_BATCH_SIZE)) {
+				clear.setBatchSize(Integer.parseInt(settings.get(Options.SETTINGS_KW_BATCH_SIZE)));
+			}
+			if (settings.containsKey(Options.SETTINGS_KW_IDLE_TIMEOUT)) {
+				clear.setIdleTimeout(Long.parseLong(settings.get(Options.SETTINGS_KW_IDLE_TIMEOUT)));
+			}
+		}
+		ProviderSession ps = consumingSession();
+		if (ps != null && ps.getConsumerCache() != null) {
+			for (String destination : destinations) {
+				ps.getConsumerCache().close(destination);
+			}
+		}
+		long start = System.nanoTime();
+		Map<String, Long> counts = clear.run(destinations);
+		System.out.println("Cleared in " + (System.nanoTime() - start) / 1000000 + " ms: " + counts);
+		
+		return counts;
+	}
+	
+	/**
+	 * Returns statistics of the JNDI cache shared by all suites, refer the
+	 * _cache_ setting of `Init Provider`.
+	 * 
+	 * Keys: hits, misses, contexts, factories
+	 */
+	public Map<String, Long> getJndiCacheStatistics() {
+		return JndiCache.getStatistics();
+	}
+	
+	/**
+	 * Empties the JNDI cache shared by all suites and closes the cached
+	 * initial contexts. The next `Init Provider` with _cache_ setting looks up
+	 * the connection factory again. Use after the JNDI configuration has
+	 * changed. Connections already opened are not affected.
+	 * 
+	 * Returns count of removed connection factories.
+	 */
+	public int invalidateJndiCache() {
+		int count = JndiCache.invalidate();
+		System.out.println(count + " connection factories removed from JNDI cache.");
+		
+		return count;
+	}
+	
+	/**
+	 * Returns statistics of the session's destination cache as dictionary.
+	 * Queues and topics are cached separately, the cache is emptied when
+	 * session is (re)initialized.
+	 * 
+	 * Keys: queue_hits, queue_misses, queue_evictions, queues, topic_hits,
+	 * topic_misses, topic_evictions, topics
+	 */
+	public Map<String, Long> getDestinationCacheStatistics() {
+		ProviderSession ps = providerConnection.getProviderSession();
+		LruCache<String, Queue> queues = ps.getQueueCache();
+		LruCache<String, Topic> topics = ps.getTopicCache();
+		Map<String, Long> stats = new LinkedHashMap<String, Long>();
+		stats.put("queue_hits", queues.getHits());
+		stats.put("queue_misses", queues.getMisses());
+		stats.put("queue_evictions", queues.getEvictions());
+		stats.put("queues", (long)queues.size());
+		stats.put("topic_hits", topics.getHits());
+		stats.put("topic_misses", topics.getMisses());
+		stats.put("topic_evictions", topics.getEvictions());
+		stats.put("topics", (long)topics.size());
+		System.out.println(stats);
+		
+		return stats;
+	}
+	
+	/**
+	 * Starts end-to-end latency measurement. Messages sent after this get
+	 * long property JMSLibrarySendTime (microseconds since epoch). When a
+	 * message with the property is received with `Receive`, `Receive Once
+	 * From Queue`, `Receive From Topic` or `Receive Captured Message`, the
+	 * time since sending is recorded per destination. Previous measurements
+	 * are discarded.
+	 * 
+	 * Latencies are accurate when the sender and receiver run in the same
+	 * JVM. Otherwise clocks of the hosts must be synchronized.
+	 */
+	public void enableLatencyMeasurement() {
+		ProviderSession ps = providerConnection.getProviderSession();
+		ps.enableLatencyMeasurement();
+	}
+	
+	/**
+	 * Stops end-to-end latency measurement.
+	 */
+	public void disableLatencyMeasurement() {
+		ProviderSession ps = providerConnection.getProviderSession();
+		ps.disableLatencyMeasurement();
+	}
+	
+	/**
+	 * Returns latency percentiles of messages received from the destination
+	 * and resets its measurement. `Enable Latency Measurement` must have been
+	 * called before.
+	 * 
+	 * Returns dictionary with keys count, min, mean, p50, p90, p99, p99.9 and
+	 * max. Latencies are in milliseconds, percentiles have at most 6.25 %
+	 * error.
+	 * 
+	 * Argument:
+	 * - _destination_: name of the queue or topic
+	 * 
+	 * Example:
+	 * | ${latency}= | Get Latency Percentiles | ${QUEUE} |
+	 * | Should Be True | ${latency['p99']} < 50 |
+	 */
+	public Map<String, Object> getLatencyPercentiles(String destination) throws Exception {
+		ProviderSession ps = providerConnection.getProviderSession();
+		LatencyRecorder recorder = ps.getLatencyRecorder();
+		if (recorder == null) {
+			throw new Exception("Latency measurement is not enabled.");
+		}
+		LatencyHistogram histogram = recorder.getHistogram(destination);
+		if (histogram == null) {
+			histogram = new LatencyHistogram();
+		}
+		Map<String, Object> percentiles = histogram.toMap();
+		histogram.reset();
+		System.out.println(destination + " latencies (ms): " + percentiles);
+		
+		return percentiles;
+	}
+	
+	/**
+	 * Returns statistics of the operations of all sessions of the current
+	 * connection as dictionary. Each recorded operation (send, receive,
+	 * receive_once, receive_captured, request_reply, queue_depth, clear,
+	 * create_message, browse, capture, replay) is a dictionary with keys
+	 * count, size, mean_ms and max_ms. Size is the total body size,
+	 * characters of text messages and bytes of bytes messages. Clear,
+	 * capture and replay are recorded once per keyword call, the size of
+	 * capture and replay is the bytes of the message log file.
+	 * 
+	 * The same statistics are available over JMX as MBean
+	 * fi.toje.himmeli.jmslibrary:type=JmsStatistics,id=<n> while the
+	 * connection is open, where n is the identity hash code of the
+	 * connection, distinct for each open connection.
+	 * 
+	 * Example:
+	 * | ${stats}= | Get JMS Statistics |
+	 * | Should Be Equal As Integers | ${stats['send']['count']} | 10 |
+	 * | Should Be True | ${stats['send']['max_ms']} < 100 |
+	 */
+	public Map<String, Object> getJmsStatistics() {
+		Map<String, Object> stats = providerConnection.getStatistics().toMap();
+		System.out.println(stats);
+		
+		return stats;
+	}
+	
+	/**
+	 * Resets statistics of the current connection.
+	 */
+	public void resetJmsStatistics() {
+		providerConnection.getStatistics().reset();
+	}
 }
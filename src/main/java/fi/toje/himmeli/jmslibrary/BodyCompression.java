@@ -0,0 +1,233 @@
+package fi.toje.himmeli.jmslibrary;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import javax.jms.BytesMessage;
+import javax.jms.JMSException;
+import javax.jms.Message;
+
+/**
+ * GZIP compression of BytesMessage bodies. Compressed message is marked
+ * with string property JMSLibraryCompression=gzip and the original size
+ * as long property JMSLibraryOriginalSize, so that the receiver knows to
+ * decompress. Bodies are streamed through bounded buffers in both
+ * directions.
+ *
+ * One instance measures one compression or decompression: original and
+ * compressed byte counts and CPU time of the current thread.
+ *
+ * Deflater and Inflater hold native memory until ended, so the GZIP streams
+ * are always closed, and streams returned to the caller must be closed.
+ */
+public class BodyCompression {
+
+	public static final String PROPERTY = "JMSLibraryCompression";
+	public static final String ORIGINAL_SIZE_PROPERTY = "JMSLibraryOriginalSize";
+	public static final String GZIP = "gzip";
+	
+	private static final ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+	
+	private final int bufferSize;
+	private long originalBytes;
+	private long compressedBytes;
+	private long cpuStart;
+	private long cpuNanos;
+	
+	/**
+	 * @param bufferSize bytes processed at a time
+	 */
+	public BodyCompression(int bufferSize) {
+		this.bufferSize = bufferSize;
+	}
+	
+	/**
+	 * @param message
+	 * @return true if body of message is compressed
+	 * @throws JMSException
+	 */
+	public static boolean isCompressed(Message message) throws JMSException {
+		return message instanceof BytesMessage && GZIP.equals(message.getStringProperty(PROPERTY));
+	}
+	
+	/**
+	 * Opens body of message from the beginning, decompressing if marked as
+	 * compressed.
+	 *
+	 * @param message
+	 * @param bufferSize
+	 * @return stream which must be closed after reading
+	 * @throws JMSException
+	 * @throws IOException
+	 */
+	public static InputStream open(BytesMessage message, int bufferSize) throws JMSException, IOException {
+		message.reset();
+		InputStream in = new BytesMessageInputStream(message);
+		if (isCompressed(message)) {
+			return new GZIPInputStream(in, bufferSize);
+		}
+		
+		return in;
+	}
+	
+	/**
+	 * Writes the input compressed into body and marks the message.
+	 *
+	 * @param in
+	 * @param message in write-only mode with empty body
+	 * @param level 1 (fastest) - 9 (best), -1 for default
+	 * @throws JMSException
+	 * @throws IOException
+	 */
+	public void compress(InputStream in, BytesMessage message, final int level) throws JMSException, IOException {
+		start();
+		BytesMessageOutputStream body = new BytesMessageOutputStream(message);
+		GZIPOutputStream out = new GZIPOutputStream(body, bufferSize) {
+			{
+				def.setLevel(level);
+			}
+		};
+		try {
+			byte[] buffer = new byte[bufferSize];
+			int c;
+			while ((c = in.read(buffer)) >= 0) {
+				out.write(buffer, 0, c);
+				originalBytes += c;
+			}
+			out.finish();
+		} finally {
+			out.close();
+		}
+		compressedBytes = body.getCount();
+		message.setStringProperty(PROPERTY, GZIP);
+		message.setLongProperty(ORIGINAL_SIZE_PROPERTY, originalBytes);
+		stop();
+	}
+	
+	/**
+	 * Opens compressed body for reading. Closing the stream ends the
+	 * measurement.
+	 *
+	 * @param message compressed message
+	 * @return decompressing stream from the beginning of body, must be
+	 * closed
+	 * @throws JMSException
+	 * @throws IOException
+	 */
+	public InputStream decompress(BytesMessage message) throws JMSException, IOException {
+		start();
+		compressedBytes = message.getBodyLength();
+		message.reset();
+		
+		return new FilterInputStream(new GZIPInputStream(new BytesMessageInputStream(message), bufferSize)) {
+			@Override
+			public int read() throws IOException {
+				int b = super.read();
+				if (b >= 0) {
+					originalBytes++;
+				}
+				
+				return b;
+			}
+			
+			@Override
+			public int read(byte[] b, int off, int len) throws IOException {
+				int c = super.read(b, off, len);
+				if (c > 0) {
+					originalBytes += c;
+				}
+				
+				return c;
+			}
+			
+			@Override
+			public void close() throws IOException {
+				stop();
+				super.close();
+			}
+		};
+	}
+	
+	/**
+	 * Decompresses body into the stream.
+	 *
+	 * @param message compressed message
+	 * @param out
+	 * @throws JMSException
+	 * @throws IOException
+	 */
+	public void decompress(BytesMessage message, OutputStream out) throws JMSException, IOException {
+		InputStream in = decompress(message);
+		try {
+			byte[] buffer = new byte[bufferSize];
+			int c;
+			while ((c = in.read(buffer)) >= 0) {
+				out.write(buffer, 0, c);
+			}
+		} finally {
+			in.close();
+		}
+	}
+	
+	public long getOriginalBytes() {
+		return originalBytes;
+	}
+	
+	public long getCompressedBytes() {
+		return compressedBytes;
+	}
+	
+	/**
+	 * @return original size divided by compressed size
+	 */
+	public double getRatio() {
+		return compressedBytes == 0 ? 0 : (double)originalBytes / compressedBytes;
+	}
+	
+	/**
+	 * @return CPU time of the thread, wall time if CPU time is not
+	 * supported
+	 */
+	public long getCpuNanos() {
+		return cpuNanos;
+	}
+	
+	/**
+	 * Keys: original_bytes, compressed_bytes, ratio and cpu_ms.
+	 *
+	 * @return
+	 */
+	public Map<String, Object> toMap() {
+		Map<String, Object> map = new LinkedHashMap<String, Object>();
+		map.put("original_bytes", originalBytes);
+		map.put("compressed_bytes", compressedBytes);
+		map.put("ratio", getRatio());
+		map.put("cpu_ms", cpuNanos / 1000000.0);
+		
+		return map;
+	}
+	
+	private void start() {
+		cpuStart = cpuTime();
+	}
+	
+	private void stop() {
+		cpuNanos = cpuTime() - cpuStart;
+	}
+	
+	private static long cpuTime() {
+		if (threads.isCurrentThreadCpuTimeSupported() && threads.isThreadCpuTimeEnabled()) {
+			return threads.getCurrentThreadCpuTime();
+		}
+		
+		return System.nanoTime();
+	}
+}
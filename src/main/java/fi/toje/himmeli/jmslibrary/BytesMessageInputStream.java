@@ -0,0 +1,54 @@
+package fi.toje.himmeli.jmslibrary;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+import javax.jms.BytesMessage;
+import javax.jms.JMSException;
+
+/**
+ * Reads body of BytesMessage from its current position.
+ */
+public class BytesMessageInputStream extends InputStream {
+
+	private final BytesMessage message;
+	private final byte[] single = new byte[1];
+	private byte[] scratch;
+	
+	/**
+	 * @param message in read-only mode
+	 */
+	public BytesMessageInputStream(BytesMessage message) {
+		this.message = message;
+	}
+	
+	@Override
+	public int read() throws IOException {
+		int c = read(single, 0, 1);
+		
+		return c < 0 ? -1 : single[0] & 0xff;
+	}
+	
+	@Override
+	public int read(byte[] b, int off, int len) throws IOException {
+		if (len == 0) {
+			return 0;
+		}
+		try {
+			if (off == 0) {
+				return message.readBytes(b, len);
+			}
+			if (scratch == null || scratch.length < len) {
+				scratch = new byte[len];
+			}
+			int c = message.readBytes(scratch, len);
+			if (c > 0) {
+				System.arraycopy(scratch, 0, b, off, c);
+			}
+			
+			return c;
+		} catch (JMSException e) {
+			throw new IOException(e);
+		}
+	}
+}
@@ -0,0 +1,50 @@
+package fi.toje.himmeli.jmslibrary;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+import javax.jms.BytesMessage;
+import javax.jms.JMSException;
+
+/**
+ * Appends to body of BytesMessage.
+ */
+public class BytesMessageOutputStream extends OutputStream {
+
+	private final BytesMessage message;
+	private long count;
+	
+	/**
+	 * @param message in write-only mode
+	 */
+	public BytesMessageOutputStream(BytesMessage message) {
+		this.message = message;
+	}
+	
+	@Override
+	public void write(int b) throws IOException {
+		try {
+			message.writeByte((byte)b);
+			count++;
+		} catch (JMSException e) {
+			throw new IOException(e);
+		}
+	}
+	
+	@Override
+	public void write(byte[] b, int off, int len) throws IOException {
+		try {
+			message.writeBytes(b, off, len);
+			count += len;
+		} catch (JMSException e) {
+			throw new IOException(e);
+		}
+	}
+	
+	/**
+	 * @return bytes written
+	 */
+	public long getCount() {
+		return count;
+	}
+}
@@ -0,0 +1,355 @@
+package fi.toje.himmeli.jmslibrary;
+
+import java.io.UnsupportedEncodingException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.jms.Connection;
+import javax.jms.ConnectionFactory;
+import javax.jms.ExceptionListener;
+import javax.jms.JMSException;
+import javax.jms.Session;
+
+/**
+ * Pool of connections leased by library instances and returned when they
+ * are done, so that suites can share connections instead of connecting
+ * (and authenticating) again. Connections are matched by connection
+ * factory instance, username, password and client id. Only a SHA-256
+ * digest of the password is kept.
+ *
+ * Connection is checked before it is leased again: connection that has
+ * reported an exception or fails to create a session is closed. Returned
+ * connection is stopped and must have no open sessions. Connections idle
+ * longer than idle timeout are closed.
+ *
+ * Calls to the provider (connecting, checking, stopping and closing) are
+ * made outside the pool lock, so a slow provider does not block other
+ * leases and releases.
+ */
+public class ConnectionPool {
+
+	public static final int DEFAULT_MAX_SIZE = 16;
+	public static final long DEFAULT_IDLE_TIMEOUT = 300000;
+	
+	private static final ConnectionPool shared = new ConnectionPool(DEFAULT_MAX_SIZE, DEFAULT_IDLE_TIMEOUT);
+	
+	private final Map<Key, Deque<Entry>> idle = new HashMap<Key, Deque<Entry>>();
+	private final Map<Connection, Entry> leased = new IdentityHashMap<Connection, Entry>();
+	private int maxSize;
+	private long idleTimeout;
+	private int idleCount;
+	private int pending;
+	private long created;
+	private long reused;
+	private long discarded;
+	
+	/**
+	 * @param maxSize maximum count of leased and idle connections together
+	 * @param idleTimeout milliseconds
+	 */
+	public ConnectionPool(int maxSize, long idleTimeout) {
+		this.maxSize = maxSize;
+		this.idleTimeout = idleTimeout;
+	}
+	
+	/**
+	 * @return pool shared by all library instances of the JVM
+	 */
+	public static ConnectionPool getShared() {
+		return shared;
+	}
+	
+	public synchronized void configure(int maxSize, long idleTimeout) {
+		this.maxSize = maxSize;
+		this.idleTimeout = idleTimeout;
+	}
+	
+	/**
+	 * Leases idle connection of the same factory, credentials and client
+	 * id, or creates a new one.
+	 *
+	 * @param factory
+	 * @param username null for default user
+	 * @param password
+	 * @param clientId null for none
+	 * @return connection, not started
+	 * @throws Exception if pool is full
+	 */
+	public Connection lease(ConnectionFactory factory, String username, String password, String clientId) throws Exception {
+		Key key = new Key(factory, username, password, clientId);
+		while (true) {
+			List<Entry> evicted = new ArrayList<Entry>();
+			Entry entry;
+			try {
+				synchronized (this) {
+					evictIdle(System.currentTimeMillis(), evicted);
+					Deque<Entry> entries = idle.get(key);
+					entry = entries != null ? entries.pollFirst() : null;
+					if (entry != null) {
+						idleCount--;
+					} else if (leased.size() + idleCount + pending >= maxSize) {
+						throw new Exception("Connection pool is full (" + maxSize + " connections).");
+					}
+					pending++;
+				}
+			} finally {
+				close(evicted);
+			}
+			if (entry == null) {
+				return create(key, factory, username, password, clientId);
+			}
+			boolean healthy = entry.isHealthy();
+			synchronized (this) {
+				pending--;
+				if (healthy) {
+					leased.put(entry.connection, entry);
+					reused++;
+					
+					return entry.connection;
+				}
+				discarded++;
+			}
+			close(entry);
+		}
+	}
+	
+	/**
+	 * Returns leased connection to the pool. Connection is stopped; its
+	 * sessions must have been closed by the caller.
+	 *
+	 * @param connection
+	 * @throws Exception if connection is not leased from this pool
+	 */
+	public void release(Connection connection) throws Exception {
+		Entry entry;
+		synchronized (this) {
+			entry = leased.remove(connection);
+			if (entry == null) {
+				throw new Exception("Connection is not leased from the pool.");
+			}
+			pending++;
+		}
+		try {
+			connection.stop();
+		} catch (JMSException e) {
+			entry.broken = true;
+		}
+		synchronized (this) {
+			pending--;
+			if (!entry.broken) {
+				entry.lastUsed = System.currentTimeMillis();
+				Deque<Entry> entries = idle.get(entry.key);
+				if (entries == null) {
+					entries = new ArrayDeque<Entry>();
+					idle.put(entry.key, entries);
+				}
+				entries.addFirst(entry);
+				idleCount++;
+				
+				return;
+			}
+			discarded++;
+		}
+		close(entry);
+	}
+	
+	/**
+	 * Closes idle connections. Leased ones are closed when released.
+	 *
+	 * @return count of closed connections
+	 */
+	public int closeIdle() {
+		List<Entry> closed = new ArrayList<Entry>();
+		synchronized (this) {
+			for (Deque<Entry> entries : idle.values()) {
+				closed.addAll(entries);
+			}
+			idle.clear();
+			idleCount = 0;
+			discarded += closed.size();
+		}
+		close(closed);
+		
+		return closed.size();
+	}
+	
+	/**
+	 * Keys: leased, idle, max_size, created, reused, discarded.
+	 *
+	 * @return
+	 */
+	public synchronized Map<String, Long> getStatistics() {
+		Map<String, Long> map = new LinkedHashMap<String, Long>();
+		map.put("leased", (long)leased.size());
+		map.put("idle", (long)idleCount);
+		map.put("max_size", (long)maxSize);
+		map.put("created", created);
+		map.put("reused", reused);
+		map.put("discarded", discarded);
+		
+		return map;
+	}
+	
+	private Connection create(Key key, ConnectionFactory factory, String username, String password, String clientId) throws JMSException {
+		Entry entry = null;
+		try {
+			Connection connection;
+			if (username != null) {
+				connection = factory.createConnection(username, password);
+			} else {
+				connection = factory.createConnection();
+			}
+			Entry e = new Entry(key, connection);
+			try {
+				if (clientId != null) {
+					connection.setClientID(clientId);
+				}
+				connection.setExceptionListener(e);
+			} catch (JMSException ex) {
+				connection.close();
+				throw ex;
+			}
+			entry = e;
+		} finally {
+			synchronized (this) {
+				pending--;
+				if (entry != null) {
+					leased.put(entry.connection, entry);
+					created++;
+				}
+			}
+		}
+		
+		return entry.connection;
+	}
+	
+	/**
+	 * Removes expired idle connections, which the caller must close
+	 * outside the lock.
+	 */
+	private void evictIdle(long now, List<Entry> evicted) {
+		Iterator<Deque<Entry>> i = idle.values().iterator();
+		while (i.hasNext()) {
+			Deque<Entry> entries = i.next();
+			// most recently used first
+			while (!entries.isEmpty() && now - entries.peekLast().lastUsed >= idleTimeout) {
+				evicted.add(entries.pollLast());
+				idleCount--;
+				discarded++;
+			}
+			if (entries.isEmpty()) {
+				i.remove();
+			}
+		}
+	}
+	
+	private static void close(List<Entry> entries) {
+		for (Entry entry : entries) {
+			close(entry);
+		}
+	}
+	
+	private static void close(Entry entry) {
+		try {
+			entry.connection.close();
+		} catch (JMSException e) {
+			System.out.println("Closing pooled connection failed: " + e);
+		}
+	}
+	
+	private static class Key {
+		
+		private final ConnectionFactory factory;
+		private final String username;
+		private final byte[] password;
+		private final String clientId;
+		
+		Key(ConnectionFactory factory, String username, String password, String clientId) {
+			this.factory = factory;
+			this.username = username;
+			this.password = digest(password);
+			this.clientId = clientId;
+		}
+		
+		@Override
+		public boolean equals(Object o) {
+			if (!(o instanceof Key)) {
+				return false;
+			}
+			Key k = (Key)o;
+			
+			return factory == k.factory && equal(username, k.username) && Arrays.equals(password, k.password) && equal(clientId, k.clientId);
+		}
+		
+		@Override
+		public int hashCode() {
+			int h = System.identityHashCode(factory);
+			h = 31 * h + (username != null ? username.hashCode() : 0);
+			h = 31 * h + Arrays.hashCode(password);
+			
+			return 31 * h + (clientId != null ? clientId.hashCode() : 0);
+		}
+		
+		private static boolean equal(String a, String b) {
+			return a == null ? b == null : a.equals(b);
+		}
+		
+		private static byte[] digest(String password) {
+			if (password == null) {
+				return null;
+			}
+			try {
+				return MessageDigest.getInstance("SHA-256").digest(password.getBytes("UTF-8"));
+			} catch (NoSuchAlgorithmException e) {
+				throw new IllegalStateException(e);
+			} catch (UnsupportedEncodingException e) {
+				throw new IllegalStateException(e);
+			}
+		}
+	}
+	
+	private static class Entry implements ExceptionListener {
+		
+		private final Key key;
+		private final Connection connection;
+		private volatile boolean broken;
+		private long lastUsed;
+		
+		Entry(Key key, Connection connection) {
+			this.key = key;
+			this.connection = connection;
+		}
+		
+		@Override
+		public void onException(JMSException exception) {
+			broken = true;
+		}
+		
+		/**
+		 * Creating a session makes a round trip to the provider with most
+		 * implementations.
+		 */
+		boolean isHealthy() {
+			if (broken) {
+				return false;
+			}
+			try {
+				connection.createSession(false, Session.AUTO_ACKNOWLEDGE).close();
+				
+				return true;
+			} catch (JMSException e) {
+				return false;
+			}
+		}
+	}
+}
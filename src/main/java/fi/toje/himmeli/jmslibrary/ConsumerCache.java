@@ -0,0 +1,152 @@
+package fi.toje.himmeli.jmslibrary;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import javax.jms.JMSException;
+import javax.jms.MessageConsumer;
+
+/**
+ * Keeps consumers open between receives, one per destination. Consumer that
+ * has not been used within idle timeout is closed.
+ *
+ * Closing returns the messages prefetched by the consumer back to the
+ * provider, so consumers must be closed before the same destination is
+ * consumed elsewhere. For the same reason the cached consumer is closed
+ * when a different message selector is asked for its destination: messages
+ * prefetched by one selector would be hidden from the other.
+ */
+public class ConsumerCache {
+
+	private final Map<String, Entry> consumers = new LinkedHashMap<String, Entry>(16, 0.75f, true);
+	private final long idleTimeout;
+	
+	/**
+	 * @param idleTimeout milliseconds
+	 */
+	public ConsumerCache(long idleTimeout) {
+		this.idleTimeout = idleTimeout;
+	}
+	
+	/**
+	 * Closes idle consumers and returns the cached consumer. Cached consumer
+	 * of the destination with a different selector is closed.
+	 *
+	 * @param destination
+	 * @param selector message selector or null
+	 * @return consumer or null if none cached
+	 * @throws JMSException
+	 */
+	public MessageConsumer get(String destination, String selector) throws JMSException {
+		long now = System.currentTimeMillis();
+		evictIdle(now);
+		Entry entry = consumers.get(destination);
+		if (entry == null) {
+			return null;
+		}
+		if (!equal(entry.selector, selector)) {
+			close(destination);
+			
+			return null;
+		}
+		entry.lastUsed = now;
+		
+		return entry.consumer;
+	}
+	
+	public void put(String destination, String selector, MessageConsumer consumer) throws JMSException {
+		close(destination);
+		consumers.put(destination, new Entry(consumer, selector, System.currentTimeMillis()));
+	}
+	
+	/**
+	 * Closes and removes consumer of the destination.
+	 *
+	 * @param destination
+	 * @throws JMSException
+	 */
+	public void close(String destination) throws JMSException {
+		Entry entry = consumers.remove(destination);
+		if (entry != null) {
+			entry.consumer.close();
+		}
+	}
+	
+	/**
+	 * Closes and removes all consumers.
+	 *
+	 * @throws JMSException
+	 */
+	public void closeAll() throws JMSException {
+		JMSException error = null;
+		for (Entry entry : consumers.values()) {
+			try {
+				entry.consumer.close();
+			} catch (JMSException e) {
+				error = e;
+			}
+		}
+		consumers.clear();
+		if (error != null) {
+			throw error;
+		}
+	}
+	
+	public int size() {
+		return consumers.size();
+	}
+	
+	public long getIdleTimeout() {
+		return idleTimeout;
+	}
+	
+	private static boolean equal(String a, String b) {
+		// null and empty select all
+		if (a == null || a.length() == 0) {
+			return b == null || b.length() == 0;
+		}
+		
+		return a.equals(b);
+	}
+	
+	/**
+	 * Closes consumers which have not been used within idle timeout.
+	 *
+	 * @return count of closed consumers
+	 * @throws JMSException
+	 */
+	public int evictIdle() throws JMSException {
+		return evictIdle(System.currentTimeMillis());
+	}
+	
+	private int evictIdle(long now) throws JMSException {
+		int count = 0;
+		// access ordered, least recently used first
+		Iterator<Entry> i = consumers.values().iterator();
+		while (i.hasNext()) {
+			Entry entry = i.next();
+			if (now - entry.lastUsed < idleTimeout) {
+				break;
+			}
+			i.remove();
+			count++;
+			entry.consumer.close();
+		}
+		
+		return count;
+	}
+	
+	private static class Entry {
+		
+		private final MessageConsumer consumer;
+		private final String selector;
+		private long lastUsed;
+		
+		Entry(MessageConsumer consumer, String selector, long lastUsed) {
+			this.consumer = consumer;
+			this.selector = selector;
+			this.lastUsed = lastUsed;
+		}
+	}
+}
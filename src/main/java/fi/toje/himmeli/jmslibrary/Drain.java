@@ -0,0 +1,155 @@
+package fi.toje.himmeli.jmslibrary;
+
+import javax.jms.JMSException;
+import javax.jms.Message;
+import javax.jms.MessageConsumer;
+import javax.jms.Session;
+
+/**
+ * Reads all available messages from a consumer. Messages are received
+ * without waiting as long as they are flowing, idle timeout is waited only
+ * when none is immediately available.
+ *
+ * Commits or acknowledges (depending on the session) every batch size
+ * messages and after the last one. Optional handler gets each message
+ * before it is committed or acknowledged. If draining fails, the messages
+ * of the unfinished batch are rolled back or recovered, so that a later
+ * commit or acknowledge of the session does not consume them.
+ */
+public class Drain {
+
+	private final Session session;
+	private final int batchSize;
+	private final long idleTimeout;
+	private long timeout;
+	private Handler handler;
+	private long deadline;
+	private Message lastMessage;
+	
+	/**
+	 * @param session session of the consumer
+	 * @param batchSize messages per commit or acknowledge, 0 does neither
+	 * @param idleTimeout milliseconds to wait for next message before the
+	 * destination is considered empty, 0 does not wait at all
+	 */
+	public Drain(Session session, int batchSize, long idleTimeout) {
+		this.session = session;
+		this.batchSize = batchSize;
+		this.idleTimeout = idleTimeout;
+	}
+	
+	/**
+	 * @param timeout milliseconds after which draining stops even if
+	 * messages are available, 0 (default) for no limit
+	 */
+	public void setTimeout(long timeout) {
+		this.timeout = timeout;
+	}
+	
+	public void setHandler(Handler handler) {
+		this.handler = handler;
+	}
+	
+	/**
+	 * @param consumer
+	 * @return count of consumed messages and duration
+	 * @throws JMSException
+	 */
+	public Measurement run(MessageConsumer consumer) throws JMSException {
+		boolean transacted = session.getTransacted();
+		boolean clientAcknowledge = !transacted && session.getAcknowledgeMode() == Session.CLIENT_ACKNOWLEDGE;
+		boolean complete = batchSize > 0 && (transacted || clientAcknowledge);
+		Measurement measurement = new Measurement();
+		measurement.start();
+		deadline = System.nanoTime() + timeout * 1000000L;
+		int pending = 0;
+		boolean done = false;
+		try {
+			Message m;
+			while ((m = next(consumer)) != null) {
+				lastMessage = m;
+				if (complete) {
+					pending++;
+				}
+				if (handler != null) {
+					handler.handle(m);
+				}
+				measurement.add(1, 0);
+				if (complete && pending == batchSize) {
+					complete(m, transacted);
+					pending = 0;
+				}
+			}
+			if (complete && pending > 0) {
+				complete(lastMessage, transacted);
+				pending = 0;
+			}
+			done = true;
+		} finally {
+			if (!done && pending > 0) {
+				undo(transacted);
+			}
+		}
+		measurement.stop();
+		
+		return measurement;
+	}
+	
+	/**
+	 * @return last consumed message or null
+	 */
+	public Message getLastMessage() {
+		return lastMessage;
+	}
+	
+	private Message next(MessageConsumer consumer) throws JMSException {
+		long wait = idleTimeout;
+		if (timeout > 0) {
+			long remaining = (deadline - System.nanoTime()) / 1000000L;
+			if (remaining <= 0) {
+				return null;
+			}
+			wait = Math.min(wait, remaining);
+		}
+		Message m = consumer.receiveNoWait();
+		if (m == null && wait > 0) {
+			m = consumer.receive(wait);
+		}
+		
+		return m;
+	}
+	
+	private void complete(Message m, boolean transacted) throws JMSException {
+		if (transacted) {
+			session.commit();
+		} else {
+			m.acknowledge();
+		}
+	}
+	
+	/**
+	 * Rolls back or recovers the unfinished batch. Failure is only logged,
+	 * so that the original exception is thrown.
+	 */
+	private void undo(boolean transacted) {
+		try {
+			if (transacted) {
+				session.rollback();
+			} else {
+				session.recover();
+			}
+		} catch (JMSException e) {
+			System.out.println("Recovering unfinished batch failed: " + e);
+		}
+	}
+	
+	public interface Handler {
+		
+		/**
+		 * @param m consumed message
+		 * @throws JMSException stops draining, the unfinished batch
+		 * including the message is rolled back or recovered
+		 */
+		void handle(Message m) throws JMSException;
+	}
+}
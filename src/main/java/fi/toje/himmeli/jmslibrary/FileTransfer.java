@@ -0,0 +1,99 @@
+package fi.toje.himmeli.jmslibrary;
+
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+import javax.jms.BytesMessage;
+import javax.jms.JMSException;
+
+/**
+ * Copies files into and out of BytesMessage bodies using NIO channels and
+ * one reusable buffer, so the only copy on the heap is the message body
+ * itself plus the buffer.
+ */
+public class FileTransfer {
+
+	private final byte[] buffer;
+	private final ByteBuffer bb;
+	
+	/**
+	 * @param bufferSize bytes copied between file and message at a time
+	 */
+	public FileTransfer(int bufferSize) {
+		if (bufferSize < 1) {
+			throw new IllegalArgumentException("Invalid buffer size: " + bufferSize + ".");
+		}
+		this.buffer = new byte[bufferSize];
+		this.bb = ByteBuffer.wrap(buffer);
+	}
+	
+	/**
+	 * Appends content of file into message body.
+	 *
+	 * @param file
+	 * @param message in write-only mode
+	 * @return byte count and duration
+	 * @throws IOException
+	 * @throws JMSException
+	 */
+	public Measurement read(String file, BytesMessage message) throws IOException, JMSException {
+		Measurement measurement = new Measurement();
+		measurement.start();
+		FileInputStream fis = new FileInputStream(file);
+		try {
+			FileChannel channel = fis.getChannel();
+			long count = 0;
+			int c;
+			bb.clear();
+			while ((c = channel.read(bb)) >= 0) {
+				message.writeBytes(buffer, 0, c);
+				count += c;
+				bb.clear();
+			}
+			measurement.add(1, count);
+		} finally {
+			fis.close();
+		}
+		measurement.stop();
+		
+		return measurement;
+	}
+	
+	/**
+	 * Writes the rest of message body into file.
+	 *
+	 * @param message in read-only mode
+	 * @param file
+	 * @param append true appends to the end of file, false overwrites
+	 * @return byte count and duration
+	 * @throws IOException
+	 * @throws JMSException
+	 */
+	public Measurement write(BytesMessage message, String file, boolean append) throws IOException, JMSException {
+		Measurement measurement = new Measurement();
+		measurement.start();
+		FileOutputStream fos = new FileOutputStream(file, append);
+		try {
+			FileChannel channel = fos.getChannel();
+			long count = 0;
+			int c;
+			while ((c = message.readBytes(buffer, buffer.length)) > 0) {
+				bb.clear();
+				bb.limit(c);
+				while (bb.hasRemaining()) {
+					channel.write(bb);
+				}
+				count += c;
+			}
+			measurement.add(1, count);
+		} finally {
+			fos.close();
+		}
+		measurement.stop();
+		
+		return measurement;
+	}
+}
@@ -0,0 +1,148 @@
+package fi.toje.himmeli.jmslibrary;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Count, body size and duration of operations. Values are kept in a
+ * preallocated array, recording does not allocate. Safe to read while
+ * recorded from other thread (JMX).
+ */
+public class JmsStatistics implements JmsStatisticsMBean {
+
+	public static final int SEND = 0;
+	public static final int RECEIVE = 1;
+	public static final int RECEIVE_ONCE = 2;
+	public static final int RECEIVE_CAPTURED = 3;
+	public static final int REQUEST_REPLY = 4;
+	public static final int QUEUE_DEPTH = 5;
+	public static final int CLEAR = 6;
+	public static final int CREATE_MESSAGE = 7;
+	public static final int BROWSE = 8;
+	public static final int CAPTURE = 9;
+	public static final int REPLAY = 10;
+	
+	private static final String[] OPERATIONS = { "send", "receive", "receive_once", "receive_captured", "request_reply", "queue_depth", "clear", "create_message", "browse", "capture", "replay" };
+	
+	private static final int COUNT = 0;
+	private static final int SIZE = 1;
+	private static final int TOTAL_NANOS = 2;
+	private static final int MAX_NANOS = 3;
+	private static final int FIELDS = 4;
+	
+	private final AtomicLongArray values = new AtomicLongArray(OPERATIONS.length * FIELDS);
+	
+	/**
+	 * @param operation
+	 * @param start System.nanoTime() at start of the operation
+	 * @param size body size
+	 */
+	public void record(int operation, long start, long size) {
+		long nanos = System.nanoTime() - start;
+		int i = operation * FIELDS;
+		values.incrementAndGet(i + COUNT);
+		values.addAndGet(i + SIZE, size);
+		values.addAndGet(i + TOTAL_NANOS, nanos);
+		long max;
+		while (nanos > (max = values.get(i + MAX_NANOS)) && !values.compareAndSet(i + MAX_NANOS, max, nanos)) {
+			// retry
+		}
+	}
+	
+	public long getCount(int operation) {
+		return values.get(operation * FIELDS + COUNT);
+	}
+	
+	public long getSize(int operation) {
+		return values.get(operation * FIELDS + SIZE);
+	}
+	
+	/**
+	 * @param operation
+	 * @return mean duration in milliseconds, 0 if none recorded
+	 */
+	public double getMeanMillis(int operation) {
+		long count = getCount(operation);
+		
+		return count == 0 ? 0 : values.get(operation * FIELDS + TOTAL_NANOS) / 1000000.0 / count;
+	}
+	
+	public double getMaxMillis(int operation) {
+		return values.get(operation * FIELDS + MAX_NANOS) / 1000000.0;
+	}
+	
+	@Override
+	public String[] getOperations() {
+		return OPERATIONS.clone();
+	}
+	
+	@Override
+	public long[] getCounts() {
+		long[] a = new long[OPERATIONS.length];
+		for (int i = 0; i < a.length; i++) {
+			a[i] = getCount(i);
+		}
+		
+		return a;
+	}
+	
+	@Override
+	public long[] getSizes() {
+		long[] a = new long[OPERATIONS.length];
+		for (int i = 0; i < a.length; i++) {
+			a[i] = getSize(i);
+		}
+		
+		return a;
+	}
+	
+	@Override
+	public double[] getMeanMillis() {
+		double[] a = new double[OPERATIONS.length];
+		for (int i = 0; i < a.length; i++) {
+			a[i] = getMeanMillis(i);
+		}
+		
+		return a;
+	}
+	
+	@Override
+	public double[] getMaxMillis() {
+		double[] a = new double[OPERATIONS.length];
+		for (int i = 0; i < a.length; i++) {
+			a[i] = getMaxMillis(i);
+		}
+		
+		return a;
+	}
+	
+	@Override
+	public void reset() {
+		for (int i = 0; i < values.length(); i++) {
+			values.set(i, 0);
+		}
+	}
+	
+	/**
+	 * Operations that have been recorded, each as dictionary with keys
+	 * count, size, mean_ms and max_ms.
+	 *
+	 * @return
+	 */
+	public Map<String, Object> toMap() {
+		Map<String, Object> map = new LinkedHashMap<String, Object>();
+		for (int i = 0; i < OPERATIONS.length; i++) {
+			if (getCount(i) > 0) {
+				Map<String, Object> op = new LinkedHashMap<String, Object>();
+				op.put("count", getCount(i));
+				op.put("size", getSize(i));
+				op.put("mean_ms", getMeanMillis(i));
+				op.put("max_ms", getMaxMillis(i));
+				map.put(OPERATIONS[i], op);
+			}
+		}
+		
+		return map;
+	}
+}
@@ -0,0 +1,23 @@
+package fi.toje.himmeli.jmslibrary;
+
+/**
+ * Statistics of a connection over JMX. Arrays are indexed as the names of
+ * getOperations.
+ */
+public interface JmsStatisticsMBean {
+
+	public String[] getOperations();
+	
+	public long[] getCounts();
+	
+	/**
+	 * @return body sizes, characters of text and bytes of bytes messages
+	 */
+	public long[] getSizes();
+	
+	public double[] getMeanMillis();
+	
+	public double[] getMaxMillis();
+	
+	public void reset();
+}
@@ -0,0 +1,104 @@
+package fi.toje.himmeli.jmslibrary;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Properties;
+
+import javax.jms.ConnectionFactory;
+import javax.naming.Context;
+import javax.naming.InitialContext;
+import javax.naming.NamingException;
+
+/**
+ * JVM-wide cache of initial contexts and connection factories, so that
+ * library instances of different suites need not repeat the JNDI lookups.
+ * Contexts are keyed by initial context factory and provider URL, connection
+ * factories additionally by lookup name.
+ */
+public class JndiCache {
+
+	private static final Map<String, InitialContext> contexts = new HashMap<String, InitialContext>();
+	private static final Map<String, ConnectionFactory> factories = new HashMap<String, ConnectionFactory>();
+	private static long hits;
+	private static long misses;
+	
+	private JndiCache() {
+	}
+	
+	/**
+	 * @param initialContextFactory
+	 * @param providerUrl
+	 * @return cached context or new one
+	 * @throws NamingException
+	 */
+	public static synchronized InitialContext getContext(String initialContextFactory, String providerUrl) throws NamingException {
+		String key = initialContextFactory + '|' + providerUrl;
+		InitialContext context = contexts.get(key);
+		if (context == null) {
+			Properties env = new Properties();
+			env.put(Context.INITIAL_CONTEXT_FACTORY, initialContextFactory);
+			env.put(Context.PROVIDER_URL, providerUrl);
+			context = new InitialContext(env);
+			contexts.put(key, context);
+		}
+		
+		return context;
+	}
+	
+	/**
+	 * @param initialContextFactory
+	 * @param providerUrl
+	 * @param lookupName
+	 * @return cached connection factory or the one looked up
+	 * @throws NamingException
+	 */
+	public static synchronized ConnectionFactory getConnectionFactory(String initialContextFactory, String providerUrl, String lookupName) throws NamingException {
+		String key = initialContextFactory + '|' + providerUrl + '|' + lookupName;
+		ConnectionFactory factory = factories.get(key);
+		if (factory != null) {
+			hits++;
+		} else {
+			misses++;
+			factory = (ConnectionFactory)getContext(initialContextFactory, providerUrl).lookup(lookupName);
+			factories.put(key, factory);
+		}
+		
+		return factory;
+	}
+	
+	/**
+	 * Removes all entries and closes the contexts. Statistics are kept.
+	 *
+	 * @return count of removed connection factories
+	 */
+	public static synchronized int invalidate() {
+		int count = factories.size();
+		factories.clear();
+		for (InitialContext context : contexts.values()) {
+			try {
+				context.close();
+			} catch (NamingException e) {
+				System.out.println("Closing context failed: " + e);
+			}
+		}
+		contexts.clear();
+		
+		return count;
+	}
+	
+	/**
+	 * Keys: hits, misses, contexts and factories.
+	 *
+	 * @return
+	 */
+	public static synchronized Map<String, Long> getStatistics() {
+		Map<String, Long> map = new LinkedHashMap<String, Long>();
+		map.put("hits", hits);
+		map.put("misses", misses);
+		map.put("contexts", (long)contexts.size());
+		map.put("factories", (long)factories.size());
+		
+		return map;
+	}
+}
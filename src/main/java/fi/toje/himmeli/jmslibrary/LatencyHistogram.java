@@ -0,0 +1,132 @@
+package fi.toje.himmeli.jmslibrary;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Histogram of latencies in microseconds. Values below 16 are counted
+ * exactly, larger ones in 16 logarithmic sub-buckets per power of two, so
+ * the reported percentiles are at most 1/16 (6.25 %) above the recorded
+ * values. Memory use is fixed regardless of count of values.
+ *
+ * Not thread safe.
+ */
+public class LatencyHistogram {
+
+	private static final int SUB_BUCKET_BITS = 4;
+	private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+	private static final int BUCKETS = (64 - SUB_BUCKET_BITS + 1) * SUB_BUCKETS;
+	
+	private final long[] counts = new long[BUCKETS];
+	private long count;
+	private long sum;
+	private long min = Long.MAX_VALUE;
+	private long max;
+	
+	/**
+	 * @param micros latency, negative values (clock skew) are recorded as 0
+	 */
+	public void record(long micros) {
+		long v = micros < 0 ? 0 : micros;
+		counts[index(v)]++;
+		count++;
+		sum += v;
+		if (v < min) {
+			min = v;
+		}
+		if (v > max) {
+			max = v;
+		}
+	}
+	
+	/**
+	 * @param percentile 0-100
+	 * @return highest value of the bucket where the percentile falls, but at
+	 * most the maximum recorded value. 0 if nothing recorded.
+	 */
+	public long getValueAtPercentile(double percentile) {
+		if (count == 0) {
+			return 0;
+		}
+		long rank = (long)Math.ceil(percentile / 100 * count);
+		if (rank < 1) {
+			rank = 1;
+		}
+		long cumulative = 0;
+		for (int i = 0; i < BUCKETS; i++) {
+			cumulative += counts[i];
+			if (cumulative >= rank) {
+				return Math.min(highestValue(i), max);
+			}
+		}
+		
+		return max;
+	}
+	
+	public long getCount() {
+		return count;
+	}
+	
+	public long getMin() {
+		return count == 0 ? 0 : min;
+	}
+	
+	public long getMax() {
+		return max;
+	}
+	
+	public double getMean() {
+		return count == 0 ? 0 : (double)sum / count;
+	}
+	
+	public void reset() {
+		Arrays.fill(counts, 0);
+		count = 0;
+		sum = 0;
+		min = Long.MAX_VALUE;
+		max = 0;
+	}
+	
+	/**
+	 * Keys: count, min, mean, p50, p90, p99, p99.9 and max. Values are in
+	 * milliseconds.
+	 *
+	 * @return
+	 */
+	public Map<String, Object> toMap() {
+		Map<String, Object> map = new LinkedHashMap<String, Object>();
+		map.put("count", count);
+		map.put("min", getMin() / 1000.0);
+		map.put("mean", getMean() / 1000.0);
+		map.put("p50", getValueAtPercentile(50) / 1000.0);
+		map.put("p90", getValueAtPercentile(90) / 1000.0);
+		map.put("p99", getValueAtPercentile(99) / 1000.0);
+		map.put("p99.9", getValueAtPercentile(99.9) / 1000.0);
+		map.put("max", max / 1000.0);
+		
+		return map;
+	}
+	
+	static int index(long v) {
+		if (v < SUB_BUCKETS) {
+			return (int)v;
+		}
+		int magnitude = 63 - Long.numberOfLeadingZeros(v);
+		int shift = magnitude - SUB_BUCKET_BITS;
+		int sub = (int)(v >>> shift) & (SUB_BUCKETS - 1);
+		
+		return (shift + 1) * SUB_BUCKETS + sub;
+	}
+	
+	static long highestValue(int index) {
+		if (index < SUB_BUCKETS) {
+			return index;
+		}
+		int shift = index / SUB_BUCKETS - 1;
+		long sub = SUB_BUCKETS + index % SUB_BUCKETS;
+		long next = (sub + 1) << shift;
+		
+		return next - 1 < 0 ? Long.MAX_VALUE : next - 1;
+	}
+}
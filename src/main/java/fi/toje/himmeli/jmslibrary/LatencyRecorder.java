@@ -0,0 +1,93 @@
+package fi.toje.himmeli.jmslibrary;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.jms.Destination;
+import javax.jms.JMSException;
+import javax.jms.Message;
+import javax.jms.MessageNotWriteableException;
+import javax.jms.Queue;
+import javax.jms.Topic;
+
+/**
+ * Stamps sent messages with send time and records the latency of received
+ * messages per destination.
+ *
+ * Send time is microseconds since epoch as long property. It is derived from
+ * System.nanoTime, so latencies within one JVM are accurate to microseconds.
+ * Across JVMs accuracy depends on the synchronization of the clocks.
+ */
+public class LatencyRecorder {
+
+	public static final String SEND_TIME_PROPERTY = "JMSLibrarySendTime";
+	
+	private static final long BASE_MICROS = System.currentTimeMillis() * 1000;
+	private static final long BASE_NANOS = System.nanoTime();
+	
+	private final Map<String, LatencyHistogram> histograms = new HashMap<String, LatencyHistogram>();
+	
+	/**
+	 * @return microseconds since epoch
+	 */
+	public static long currentTimeMicros() {
+		return BASE_MICROS + (System.nanoTime() - BASE_NANOS) / 1000;
+	}
+	
+	/**
+	 * Sets send time property. Read-only (received) messages are not stamped.
+	 *
+	 * @param message
+	 * @throws JMSException
+	 */
+	public void stamp(Message message) throws JMSException {
+		try {
+			message.setLongProperty(SEND_TIME_PROPERTY, currentTimeMicros());
+		} catch (MessageNotWriteableException e) {
+			// forwarded message keeps its original send time
+		}
+	}
+	
+	/**
+	 * Records latency of message if it has send time property.
+	 *
+	 * @param message
+	 * @throws JMSException
+	 */
+	public void record(Message message) throws JMSException {
+		if (message == null || !message.propertyExists(SEND_TIME_PROPERTY)) {
+			return;
+		}
+		long latency = currentTimeMicros() - message.getLongProperty(SEND_TIME_PROPERTY);
+		String destination = destinationName(message.getJMSDestination());
+		LatencyHistogram histogram = histograms.get(destination);
+		if (histogram == null) {
+			histogram = new LatencyHistogram();
+			histograms.put(destination, histogram);
+		}
+		histogram.record(latency);
+	}
+	
+	/**
+	 * @param destination name of queue or topic
+	 * @return histogram or null if nothing recorded for the destination
+	 */
+	public LatencyHistogram getHistogram(String destination) {
+		return histograms.get(destination);
+	}
+	
+	public Map<String, LatencyHistogram> getHistograms() {
+		return histograms;
+	}
+	
+	static String destinationName(Destination d) throws JMSException {
+		if (d instanceof Queue) {
+			return ((Queue)d).getQueueName();
+		}
+		if (d instanceof Topic) {
+			return ((Topic)d).getTopicName();
+		}
+		
+		return String.valueOf(d);
+	}
+}
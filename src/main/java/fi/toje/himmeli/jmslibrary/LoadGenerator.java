@@ -0,0 +1,270 @@
+package fi.toje.himmeli.jmslibrary;
+
+import java.nio.charset.CharacterCodingException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import javax.jms.BytesMessage;
+import javax.jms.Destination;
+import javax.jms.JMSException;
+import javax.jms.Message;
+import javax.jms.MessageProducer;
+import javax.jms.Session;
+import javax.jms.TextMessage;
+
+/**
+ * Sends messages from several threads. Each thread has its own session and
+ * producer on the same connection. Messages are TextMessages with fixed
+ * text, or rendered from a template for every send, in which case each
+ * thread has its own renderer and the sequence of the template is shared.
+ */
+public class LoadGenerator {
+
+	private final ProviderConnection providerConnection;
+	private final String destinationType;
+	private final String destination;
+	private final String text;
+	private MessageTemplate template;
+	private String charset;
+	private Map<String, String> values;
+	private int threads = 1;
+	private long count;
+	private double rate;
+	private long duration;
+	private int deliveryMode = Message.DEFAULT_DELIVERY_MODE;
+	private int priority = Message.DEFAULT_PRIORITY;
+	private long timeToLive = Message.DEFAULT_TIME_TO_LIVE;
+	private final AtomicLong issued = new AtomicLong();
+	private final AtomicLong sent = new AtomicLong();
+	private final AtomicLong errors = new AtomicLong();
+	
+	/**
+	 * @param providerConnection
+	 * @param destinationType queue or topic
+	 * @param destination
+	 * @param text body of TextMessages, null if template is set
+	 */
+	public LoadGenerator(ProviderConnection providerConnection, String destinationType, String destination, String text) {
+		this.providerConnection = providerConnection;
+		this.destinationType = destinationType;
+		this.destination = destination;
+		this.text = text;
+	}
+	
+	/**
+	 * Renders each message from the template instead of sending the text.
+	 *
+	 * @param template
+	 * @param charset null sends TextMessages, otherwise BytesMessages with
+	 * the body encoded in the charset
+	 * @param values of value placeholders
+	 */
+	public void setTemplate(MessageTemplate template, String charset, Map<String, String> values) {
+		this.template = template;
+		this.charset = charset;
+		this.values = values;
+	}
+	
+	/**
+	 * @param threads count of sending threads, each with own session
+	 */
+	public void setThreads(int threads) {
+		this.threads = threads;
+	}
+	
+	/**
+	 * @param count total count of messages, 0 is unlimited
+	 */
+	public void setCount(long count) {
+		this.count = count;
+	}
+	
+	/**
+	 * @param rate target messages per second of all threads, 0 is unlimited
+	 */
+	public void setRate(double rate) {
+		this.rate = rate;
+	}
+	
+	/**
+	 * @param duration milliseconds, 0 is unlimited
+	 */
+	public void setDuration(long duration) {
+		this.duration = duration;
+	}
+	
+	public void setProducerSettings(int deliveryMode, int priority, long timeToLive) {
+		this.deliveryMode = deliveryMode;
+		this.priority = priority;
+		this.timeToLive = timeToLive;
+	}
+	
+	public long getSent() {
+		return sent.get();
+	}
+	
+	public long getErrors() {
+		return errors.get();
+	}
+	
+	/**
+	 * Sends until count is reached or duration has elapsed.
+	 *
+	 * @return sent messages and duration
+	 * @throws Exception if sessions cannot be created or neither count nor
+	 * duration is set
+	 */
+	public Measurement run() throws Exception {
+		if (count <= 0 && duration <= 0) {
+			throw new Exception("Count or duration must be given.");
+		}
+		if (threads < 1) {
+			throw new Exception("Invalid thread count: " + threads + ".");
+		}
+		if (template != null) {
+			for (String name : template.getValueNames()) {
+				if (values == null || values.get(name) == null) {
+					throw new Exception("No value for placeholder '" + name + "'.");
+				}
+			}
+		}
+		List<Worker> workers = new ArrayList<Worker>();
+		try {
+			for (int i = 0; i < threads; i++) {
+				workers.add(new Worker(providerConnection.createSession(false, Session.AUTO_ACKNOWLEDGE)));
+			}
+		} catch (JMSException e) {
+			for (Worker w : workers) {
+				w.close();
+			}
+			throw e;
+		}
+		
+		Measurement measurement = new Measurement();
+		ExecutorService executor = Executors.newFixedThreadPool(threads);
+		measurement.start();
+		long start = System.nanoTime();
+		try {
+			List<Future<Void>> futures = new ArrayList<Future<Void>>();
+			for (Worker w : workers) {
+				w.start = start;
+				futures.add(executor.submit(w));
+			}
+			for (Future<Void> f : futures) {
+				try {
+					f.get();
+				} catch (ExecutionException e) {
+					errors.incrementAndGet();
+					System.out.println("Load generator thread failed: " + e.getCause());
+				}
+			}
+		} finally {
+			executor.shutdownNow();
+			for (Worker w : workers) {
+				w.close();
+			}
+		}
+		measurement.stop();
+		measurement.add(sent.get(), 0);
+		
+		return measurement;
+	}
+	
+	private boolean claim() {
+		if (count <= 0) {
+			return true;
+		}
+		
+		return issued.incrementAndGet() <= count;
+	}
+	
+	private class Worker implements Callable<Void> {
+		
+		private final Session session;
+		private long start;
+		
+		Worker(Session session) {
+			this.session = session;
+		}
+		
+		@Override
+		public Void call() throws Exception {
+			Destination d;
+			if (Options.DESTINATION_TYPE_TOPIC.equals(destinationType)) {
+				d = session.createTopic(destination);
+			} else {
+				d = session.createQueue(destination);
+			}
+			MessageProducer producer = session.createProducer(d);
+			producer.setDeliveryMode(deliveryMode);
+			producer.setPriority(priority);
+			producer.setTimeToLive(timeToLive);
+			MessageTemplate.Renderer renderer = null;
+			Message m;
+			if (template == null) {
+				m = session.createTextMessage(text);
+			} else if (charset != null) {
+				renderer = new MessageTemplate.Renderer(charset);
+				m = session.createBytesMessage();
+			} else {
+				renderer = new MessageTemplate.Renderer(null);
+				m = session.createTextMessage();
+			}
+			long deadline = start + duration * 1000000;
+			// nanoseconds between sends of this thread
+			long interval = rate > 0 ? (long)(1000000000.0 * threads / rate) : 0;
+			long next = start;
+			while (!Thread.currentThread().isInterrupted()) {
+				long now = System.nanoTime();
+				if ((duration > 0 && now - deadline >= 0) || !claim()) {
+					break;
+				}
+				if (interval > 0) {
+					if (next - now > 0) {
+						LockSupport.parkNanos(next - now);
+					}
+					next += interval;
+				}
+				try {
+					if (renderer != null) {
+						render(renderer, m);
+					}
+					producer.send(m);
+					sent.incrementAndGet();
+				} catch (JMSException e) {
+					errors.incrementAndGet();
+				}
+			}
+			
+			return null;
+		}
+		
+		private void render(MessageTemplate.Renderer renderer, Message m) throws JMSException {
+			if (m instanceof BytesMessage) {
+				try {
+					renderer.render(template, values, (BytesMessage)m);
+				} catch (CharacterCodingException e) {
+					throw new JMSException("Encoding failed: " + e);
+				}
+			} else {
+				renderer.render(template, values, (TextMessage)m);
+			}
+		}
+		
+		void close() {
+			try {
+				session.close();
+			} catch (JMSException e) {
+				System.out.println("Closing load generator session failed: " + e);
+			}
+		}
+	}
+}
@@ -0,0 +1,146 @@
+package fi.toje.himmeli.jmslibrary;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import javax.jms.BytesMessage;
+import javax.jms.JMSException;
+import javax.jms.Message;
+import javax.jms.Session;
+
+/**
+ * Message read from a message log. Refer MessageLogWriter for the format.
+ */
+public class LoggedMessage {
+
+	public static final byte BODY_NONE = 0;
+	public static final byte BODY_TEXT = 1;
+	public static final byte BODY_BYTES = 2;
+	
+	public static final byte DESTINATION_NONE = 0;
+	public static final byte DESTINATION_QUEUE = 1;
+	public static final byte DESTINATION_TOPIC = 2;
+	
+	long logTime;
+	String messageId;
+	String correlationId;
+	String type;
+	byte replyToType;
+	String replyTo;
+	long timestamp;
+	long expiration;
+	int priority;
+	int deliveryMode;
+	boolean redelivered;
+	Map<String, Object> properties = new LinkedHashMap<String, Object>();
+	byte bodyType;
+	String text;
+	byte[] bytes;
+	
+	/**
+	 * @return milliseconds when the message was written into the log
+	 */
+	public long getLogTime() {
+		return logTime;
+	}
+	
+	public String getMessageId() {
+		return messageId;
+	}
+	
+	public String getCorrelationId() {
+		return correlationId;
+	}
+	
+	public String getType() {
+		return type;
+	}
+	
+	/**
+	 * @return JMSTimestamp of the original message
+	 */
+	public long getTimestamp() {
+		return timestamp;
+	}
+	
+	public long getExpiration() {
+		return expiration;
+	}
+	
+	public int getPriority() {
+		return priority;
+	}
+	
+	public int getDeliveryMode() {
+		return deliveryMode;
+	}
+	
+	public boolean getRedelivered() {
+		return redelivered;
+	}
+	
+	public Map<String, Object> getProperties() {
+		return properties;
+	}
+	
+	public byte getBodyType() {
+		return bodyType;
+	}
+	
+	public String getText() {
+		return text;
+	}
+	
+	public byte[] getBytes() {
+		return bytes;
+	}
+	
+	/**
+	 * Creates message with the body, properties, JMSCorrelationID, JMSType
+	 * and JMSReplyTo of the logged one. Other headers are set by the
+	 * provider on send. Provider set JMSX properties and the send time of
+	 * latency measurement are left out, refer isReplayed.
+	 *
+	 * @param session
+	 * @return
+	 * @throws JMSException
+	 */
+	public Message createMessage(Session session) throws JMSException {
+		Message m;
+		switch (bodyType) {
+			case BODY_TEXT:
+				m = session.createTextMessage(text);
+				break;
+			case BODY_BYTES:
+				BytesMessage bm = session.createBytesMessage();
+				bm.writeBytes(bytes);
+				m = bm;
+				break;
+			default:
+				m = session.createMessage();
+		}
+		m.setJMSCorrelationID(correlationId);
+		m.setJMSType(type);
+		if (replyToType == DESTINATION_QUEUE) {
+			m.setJMSReplyTo(session.createQueue(replyTo));
+		} else if (replyToType == DESTINATION_TOPIC) {
+			m.setJMSReplyTo(session.createTopic(replyTo));
+		}
+		for (Map.Entry<String, Object> e : properties.entrySet()) {
+			if (isReplayed(e.getKey())) {
+				m.setObjectProperty(e.getKey(), e.getValue());
+			}
+		}
+		
+		return m;
+	}
+	
+	/**
+	 * @param property
+	 * @return false for JMSX properties, which are set by the provider, and
+	 * the send time property, which would corrupt latency of the new message
+	 */
+	public static boolean isReplayed(String property) {
+		return !property.startsWith("JMSX") && !property.equals(LatencyRecorder.SEND_TIME_PROPERTY);
+	}
+}
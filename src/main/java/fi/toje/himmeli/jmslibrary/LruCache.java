@@ -0,0 +1,91 @@
+package fi.toje.himmeli.jmslibrary;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Bounded cache with least recently used eviction. Counts hits and misses.
+ *
+ * Not thread safe, meant to be used within one session.
+ *
+ * @param <K> key
+ * @param <V> value
+ */
+public class LruCache<K, V> {
+
+	private final int maxSize;
+	private final LinkedHashMap<K, V> entries;
+	private long hits;
+	private long misses;
+	private long evictions;
+	
+	/**
+	 * @param maxSize maximum count of entries, must be positive
+	 */
+	public LruCache(int maxSize) {
+		if (maxSize < 1) {
+			throw new IllegalArgumentException("Invalid cache size: " + maxSize + ".");
+		}
+		this.maxSize = maxSize;
+		this.entries = new LinkedHashMap<K, V>(16, 0.75f, true) {
+			
+			private static final long serialVersionUID = 1L;
+			
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<K, V> eldest) {
+				boolean remove = size() > LruCache.this.maxSize;
+				if (remove) {
+					evictions++;
+				}
+				
+				return remove;
+			}
+		};
+	}
+	
+	/**
+	 * @param key
+	 * @return cached value or null if not cached
+	 */
+	public V get(K key) {
+		V value = entries.get(key);
+		if (value != null) {
+			hits++;
+		} else {
+			misses++;
+		}
+		
+		return value;
+	}
+	
+	public void put(K key, V value) {
+		entries.put(key, value);
+	}
+	
+	/**
+	 * Removes all entries. Statistics are kept.
+	 */
+	public void clear() {
+		entries.clear();
+	}
+	
+	public int size() {
+		return entries.size();
+	}
+	
+	public int getMaxSize() {
+		return maxSize;
+	}
+	
+	public long getHits() {
+		return hits;
+	}
+	
+	public long getMisses() {
+		return misses;
+	}
+	
+	public long getEvictions() {
+		return evictions;
+	}
+}
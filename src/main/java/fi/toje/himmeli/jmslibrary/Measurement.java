@@ -0,0 +1,94 @@
+package fi.toje.himmeli.jmslibrary;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Message and byte counts of a timed operation.
+ */
+public class Measurement {
+
+	private long count;
+	private long bytes;
+	private long startNanos;
+	private long elapsedNanos;
+	
+	/**
+	 * Starts the clock.
+	 */
+	public void start() {
+		startNanos = System.nanoTime();
+	}
+	
+	/**
+	 * Stops the clock. Elapsed time is calculated from the start.
+	 */
+	public void stop() {
+		elapsedNanos = System.nanoTime() - startNanos;
+	}
+	
+	public void add(long messages, long byteCount) {
+		count += messages;
+		bytes += byteCount;
+	}
+	
+	public long getCount() {
+		return count;
+	}
+	
+	public long getBytes() {
+		return bytes;
+	}
+	
+	public long getElapsedNanos() {
+		return elapsedNanos;
+	}
+	
+	public long getElapsedMillis() {
+		return elapsedNanos / 1000000;
+	}
+	
+	/**
+	 * @return messages per second
+	 */
+	public double getRate() {
+		return perSecond(count);
+	}
+	
+	/**
+	 * @return bytes per second
+	 */
+	public double getByteRate() {
+		return perSecond(bytes);
+	}
+	
+	/**
+	 * Keys: count, bytes, elapsed_ms, rate (messages/s) and byte_rate
+	 * (bytes/s).
+	 *
+	 * @return
+	 */
+	public Map<String, Object> toMap() {
+		Map<String, Object> map = new LinkedHashMap<String, Object>();
+		map.put("count", count);
+		map.put("bytes", bytes);
+		map.put("elapsed_ms", getElapsedMillis());
+		map.put("rate", getRate());
+		map.put("byte_rate", getByteRate());
+		
+		return map;
+	}
+	
+	@Override
+	public String toString() {
+		return String.format("%d messages, %d bytes in %d ms (%.1f msg/s, %.1f bytes/s)", count, bytes, getElapsedMillis(), getRate(), getByteRate());
+	}
+	
+	private double perSecond(long value) {
+		if (elapsedNanos <= 0) {
+			return 0;
+		}
+		
+		return value * 1000000000.0 / elapsedNanos;
+	}
+}
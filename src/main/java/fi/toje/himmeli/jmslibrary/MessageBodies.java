@@ -0,0 +1,143 @@
+package fi.toje.himmeli.jmslibrary;
+
+import java.io.Serializable;
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.jms.JMSException;
+import javax.jms.MapMessage;
+import javax.jms.MessageEOFException;
+import javax.jms.MessageFormatException;
+import javax.jms.StreamMessage;
+
+/**
+ * Converts bodies of MapMessages and StreamMessages to and from maps and
+ * lists. Values keep their types: primitive wrappers, String and byte[]
+ * are stored as is, big integers fitting into long as long and other
+ * objects as their string representation.
+ */
+public class MessageBodies {
+
+	private MessageBodies() {
+	}
+	
+	/**
+	 * @param message writable MapMessage
+	 * @param values
+	 * @throws JMSException
+	 */
+	public static void write(MapMessage message, Map<String, ?> values) throws JMSException {
+		for (Map.Entry<String, ?> e : values.entrySet()) {
+			message.setObject(e.getKey(), toJmsValue(e.getValue()));
+		}
+	}
+	
+	/**
+	 * @param message
+	 * @return entries in the order of getMapNames
+	 * @throws JMSException
+	 */
+	public static Map<String, Object> read(MapMessage message) throws JMSException {
+		Map<String, Object> values = new LinkedHashMap<String, Object>();
+		Enumeration<?> names = message.getMapNames();
+		while (names.hasMoreElements()) {
+			String name = (String)names.nextElement();
+			values.put(name, message.getObject(name));
+		}
+		
+		return values;
+	}
+	
+	/**
+	 * @param message writable StreamMessage
+	 * @param values
+	 * @throws JMSException
+	 */
+	public static void write(StreamMessage message, List<?> values) throws JMSException {
+		for (Object value : values) {
+			message.writeObject(toJmsValue(value));
+		}
+	}
+	
+	/**
+	 * Reads the whole stream from the beginning.
+	 *
+	 * @param message
+	 * @return values in stream order
+	 * @throws JMSException
+	 */
+	public static List<Object> read(StreamMessage message) throws JMSException {
+		List<Object> values = new ArrayList<Object>();
+		message.reset();
+		try {
+			while (true) {
+				values.add(message.readObject());
+			}
+		} catch (MessageEOFException e) {
+			// end of stream
+		}
+		message.reset();
+		
+		return values;
+	}
+	
+	/**
+	 * @param value
+	 * @return value as object supported by JMS
+	 */
+	public static Object toJmsValue(Object value) {
+		if (value == null || value instanceof String || value instanceof Boolean || value instanceof Byte || value instanceof Short || value instanceof Character || value instanceof Integer || value instanceof Long || value instanceof Float || value instanceof Double || value instanceof byte[]) {
+			return value;
+		}
+		if (value instanceof BigInteger && ((BigInteger)value).bitLength() < 64) {
+			return ((BigInteger)value).longValue();
+		}
+		
+		return String.valueOf(value);
+	}
+	
+	/**
+	 * Like toJmsValue, but characters are converted to strings, because
+	 * properties cannot have char or byte[] values.
+	 *
+	 * @param name of the property
+	 * @param value
+	 * @return value as object supported by setObjectProperty
+	 * @throws MessageFormatException if value is a byte array
+	 */
+	public static Object toPropertyValue(String name, Object value) throws MessageFormatException {
+		if (value instanceof byte[]) {
+			throw new MessageFormatException("Property '" + name + "' cannot have a byte array value.");
+		}
+		if (value instanceof Character) {
+			return value.toString();
+		}
+		
+		return toJmsValue(value);
+	}
+	
+	/**
+	 * Copies maps and lists which are not serializable.
+	 *
+	 * @param value
+	 * @return serializable value
+	 * @throws JMSException if value cannot be serialized
+	 */
+	@SuppressWarnings("unchecked")
+	public static Serializable toSerializable(Object value) throws JMSException {
+		if (value == null || value instanceof Serializable) {
+			return (Serializable)value;
+		}
+		if (value instanceof Map) {
+			return new LinkedHashMap<Object, Object>((Map<Object, Object>)value);
+		}
+		if (value instanceof List) {
+			return new ArrayList<Object>((List<Object>)value);
+		}
+		throw new JMSException("Object of " + value.getClass().getName() + " is not serializable.");
+	}
+}
@@ -0,0 +1,149 @@
+package fi.toje.himmeli.jmslibrary;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import javax.jms.Message;
+import javax.jms.MessageListener;
+
+/**
+ * MessageListener which collects messages into a bounded buffer. Messages
+ * arriving when the buffer is full are dropped and counted.
+ *
+ * Messages are added by the provider's delivery thread and read by the
+ * test thread.
+ */
+public class MessageCapture implements MessageListener {
+
+	private final int capacity;
+	private final ArrayDeque<Message> buffer = new ArrayDeque<Message>();
+	private final ReentrantLock lock = new ReentrantLock();
+	private final Condition added = lock.newCondition();
+	private long captured;
+	private long dropped;
+	
+	/**
+	 * @param capacity maximum count of buffered messages
+	 */
+	public MessageCapture(int capacity) {
+		if (capacity < 1) {
+			throw new IllegalArgumentException("Invalid capacity: " + capacity + ".");
+		}
+		this.capacity = capacity;
+	}
+	
+	@Override
+	public void onMessage(Message message) {
+		lock.lock();
+		try {
+			if (buffer.size() < capacity) {
+				buffer.add(message);
+				captured++;
+				added.signalAll();
+			} else {
+				dropped++;
+			}
+		} finally {
+			lock.unlock();
+		}
+	}
+	
+	/**
+	 * Waits until at least count messages are buffered.
+	 *
+	 * @param count
+	 * @param timeout milliseconds
+	 * @return true if count was reached, false if timed out
+	 * @throws InterruptedException
+	 */
+	public boolean await(int count, long timeout) throws InterruptedException {
+		long remaining = TimeUnit.MILLISECONDS.toNanos(timeout);
+		lock.lock();
+		try {
+			while (buffer.size() < count) {
+				if (remaining <= 0) {
+					return false;
+				}
+				remaining = added.awaitNanos(remaining);
+			}
+			
+			return true;
+		} finally {
+			lock.unlock();
+		}
+	}
+	
+	/**
+	 * Removes the first buffered message, waiting at most timeout for one.
+	 *
+	 * @param timeout milliseconds
+	 * @return message or null if none arrived
+	 * @throws InterruptedException
+	 */
+	public Message poll(long timeout) throws InterruptedException {
+		lock.lock();
+		try {
+			if (await(1, timeout)) {
+				return buffer.poll();
+			}
+			
+			return null;
+		} finally {
+			lock.unlock();
+		}
+	}
+	
+	/**
+	 * Removes and returns all buffered messages.
+	 *
+	 * @return messages in arrival order
+	 */
+	public List<Message> drain() {
+		lock.lock();
+		try {
+			List<Message> messages = new ArrayList<Message>(buffer);
+			buffer.clear();
+			
+			return messages;
+		} finally {
+			lock.unlock();
+		}
+	}
+	
+	public int size() {
+		lock.lock();
+		try {
+			return buffer.size();
+		} finally {
+			lock.unlock();
+		}
+	}
+	
+	/**
+	 * @return count of messages added to the buffer
+	 */
+	public long getCaptured() {
+		lock.lock();
+		try {
+			return captured;
+		} finally {
+			lock.unlock();
+		}
+	}
+	
+	/**
+	 * @return count of messages dropped because the buffer was full
+	 */
+	public long getDropped() {
+		lock.lock();
+		try {
+			return dropped;
+		} finally {
+			lock.unlock();
+		}
+	}
+}
@@ -0,0 +1,159 @@
+package fi.toje.himmeli.jmslibrary;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+
+/**
+ * Reads message log written by MessageLogWriter one record at a time. Each
+ * record is read into a reused buffer, so memory use depends only on the
+ * largest record.
+ *
+ * Not thread safe.
+ */
+public class MessageLogReader {
+
+	private final DataInputStream in;
+	private byte[] record = new byte[1024];
+	private long count;
+	private long bytes;
+	
+	/**
+	 * @param file
+	 * @param bufferSize
+	 * @throws IOException if file is not a message log
+	 */
+	public MessageLogReader(String file, int bufferSize) throws IOException {
+		this.in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), bufferSize));
+		try {
+			if (in.readInt() != MessageLogWriter.MAGIC) {
+				throw new IOException(file + " is not a message log.");
+			}
+			int version = in.readInt();
+			if (version != MessageLogWriter.VERSION) {
+				throw new IOException("Unsupported message log version " + version + ".");
+			}
+		} catch (IOException e) {
+			in.close();
+			throw e;
+		}
+	}
+	
+	/**
+	 * @return next message or null at the end of log
+	 * @throws IOException if log is truncated or corrupted
+	 */
+	public LoggedMessage next() throws IOException {
+		int length;
+		try {
+			length = in.readInt();
+		} catch (EOFException e) {
+			return null;
+		}
+		if (length < 0) {
+			throw new IOException("Corrupted message log record " + (count + 1) + ".");
+		}
+		if (record.length < length) {
+			record = new byte[Math.max(length, record.length * 2)];
+		}
+		in.readFully(record, 0, length);
+		count++;
+		bytes += 4 + length;
+		
+		return parse(ByteBuffer.wrap(record, 0, length));
+	}
+	
+	/**
+	 * @return count of messages read
+	 */
+	public long getCount() {
+		return count;
+	}
+	
+	/**
+	 * @return bytes read, excluding file header
+	 */
+	public long getBytes() {
+		return bytes;
+	}
+	
+	public void close() throws IOException {
+		in.close();
+	}
+	
+	private LoggedMessage parse(ByteBuffer b) throws IOException {
+		try {
+			LoggedMessage m = new LoggedMessage();
+			m.bodyType = b.get();
+			m.logTime = b.getLong();
+			m.messageId = readString(b);
+			m.correlationId = readString(b);
+			m.type = readString(b);
+			m.replyToType = b.get();
+			m.replyTo = readString(b);
+			m.timestamp = b.getLong();
+			m.expiration = b.getLong();
+			m.priority = b.getInt();
+			m.deliveryMode = b.getInt();
+			m.redelivered = b.get() != 0;
+			int n = b.getInt();
+			for (int i = 0; i < n; i++) {
+				String name = readString(b);
+				m.properties.put(name, readProperty(b));
+			}
+			if (m.bodyType == LoggedMessage.BODY_TEXT) {
+				m.text = readString(b);
+			} else if (m.bodyType == LoggedMessage.BODY_BYTES) {
+				m.bytes = new byte[b.getInt()];
+				b.get(m.bytes);
+			}
+			
+			return m;
+		} catch (RuntimeException e) {
+			// buffer underflow or invalid length
+			throw new IOException("Corrupted message log record " + count + ": " + e);
+		}
+	}
+	
+	private static Object readProperty(ByteBuffer b) throws IOException {
+		byte type = b.get();
+		switch (type) {
+			case MessageLogWriter.PROPERTY_STRING:
+				return readString(b);
+			case MessageLogWriter.PROPERTY_BOOLEAN:
+				return b.get() != 0;
+			case MessageLogWriter.PROPERTY_BYTE:
+				return b.get();
+			case MessageLogWriter.PROPERTY_SHORT:
+				return b.getShort();
+			case MessageLogWriter.PROPERTY_INT:
+				return b.getInt();
+			case MessageLogWriter.PROPERTY_LONG:
+				return b.getLong();
+			case MessageLogWriter.PROPERTY_FLOAT:
+				return b.getFloat();
+			case MessageLogWriter.PROPERTY_DOUBLE:
+				return b.getDouble();
+			default:
+				throw new IOException("Unknown property type " + type + ".");
+		}
+	}
+	
+	private static String readString(ByteBuffer b) {
+		int length = b.getInt();
+		if (length < 0) {
+			return null;
+		}
+		if (length > b.remaining()) {
+			throw new BufferUnderflowException();
+		}
+		String s = new String(b.array(), b.arrayOffset() + b.position(), length, MessageLogWriter.UTF8);
+		b.position(b.position() + length);
+		
+		return s;
+	}
+}
@@ -0,0 +1,290 @@
+package fi.toje.himmeli.jmslibrary;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.util.Enumeration;
+
+import javax.jms.BytesMessage;
+import javax.jms.Destination;
+import javax.jms.JMSException;
+import javax.jms.Message;
+import javax.jms.Queue;
+import javax.jms.TextMessage;
+import javax.jms.Topic;
+
+/**
+ * Appends messages into a binary message log. The file starts with magic
+ * number and version (two ints) followed by records, each prefixed by its
+ * length (int). A record contains, in DataOutput format:
+ * - body type (byte): none, text or bytes
+ * - log time (long)
+ * - JMSMessageID, JMSCorrelationID and JMSType (string)
+ * - JMSReplyTo type (byte) and name (string)
+ * - JMSTimestamp and JMSExpiration (long), JMSPriority and JMSDeliveryMode
+ * (int), JMSRedelivered (boolean)
+ * - property count (int), then name (string), type (byte) and value of each
+ * - body (string for text, int length and bytes for bytes)
+ *
+ * Strings are written as int length (-1 for null) and UTF-8 bytes. Other
+ * message types are logged without body. Headers and properties of each
+ * record are built in a reused buffer; the body is streamed to the file
+ * through a buffer of fixed size, so memory use does not grow with message
+ * size.
+ *
+ * Not thread safe.
+ */
+public class MessageLogWriter {
+
+	public static final int MAGIC = 0x4A4D534C;
+	public static final int VERSION = 1;
+	
+	static final Charset UTF8 = Charset.forName("UTF-8");
+	
+	static final byte PROPERTY_STRING = 1;
+	static final byte PROPERTY_BOOLEAN = 2;
+	static final byte PROPERTY_BYTE = 3;
+	static final byte PROPERTY_SHORT = 4;
+	static final byte PROPERTY_INT = 5;
+	static final byte PROPERTY_LONG = 6;
+	static final byte PROPERTY_FLOAT = 7;
+	static final byte PROPERTY_DOUBLE = 8;
+	
+	private final DataOutputStream out;
+	// writeTo does not copy the content
+	private final ByteArrayOutputStream record = new ByteArrayOutputStream(1024);
+	private final DataOutputStream recordOut = new DataOutputStream(record);
+	private final byte[] buffer;
+	private final ByteBuffer bb;
+	private final CharsetEncoder encoder = UTF8.newEncoder().onMalformedInput(CodingErrorAction.REPLACE).onUnmappableCharacter(CodingErrorAction.REPLACE);
+	private long count;
+	private long bytes;
+	
+	/**
+	 * Opens the log for appending, creates it if missing.
+	 *
+	 * @param file
+	 * @param bufferSize
+	 * @throws IOException
+	 */
+	public MessageLogWriter(String file, int bufferSize) throws IOException {
+		boolean empty = new File(file).length() == 0;
+		this.out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file, true), bufferSize));
+		// room for any encoded character
+		this.buffer = new byte[Math.max(bufferSize, 16)];
+		this.bb = ByteBuffer.wrap(buffer);
+		if (empty) {
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+		}
+	}
+	
+	/**
+	 * Appends the message. Body of BytesMessage is read from the beginning.
+	 *
+	 * @param m
+	 * @throws JMSException
+	 * @throws IOException
+	 */
+	public void write(Message m) throws JMSException, IOException {
+		record.reset();
+		DataOutputStream r = recordOut;
+		byte bodyType = LoggedMessage.BODY_NONE;
+		if (m instanceof TextMessage) {
+			bodyType = LoggedMessage.BODY_TEXT;
+		} else if (m instanceof BytesMessage) {
+			bodyType = LoggedMessage.BODY_BYTES;
+		}
+		r.writeByte(bodyType);
+		r.writeLong(System.currentTimeMillis());
+		writeString(r, m.getJMSMessageID());
+		writeString(r, m.getJMSCorrelationID());
+		writeString(r, m.getJMSType());
+		Destination replyTo = m.getJMSReplyTo();
+		if (replyTo instanceof Queue) {
+			r.writeByte(LoggedMessage.DESTINATION_QUEUE);
+			writeString(r, ((Queue)replyTo).getQueueName());
+		} else if (replyTo instanceof Topic) {
+			r.writeByte(LoggedMessage.DESTINATION_TOPIC);
+			writeString(r, ((Topic)replyTo).getTopicName());
+		} else {
+			r.writeByte(LoggedMessage.DESTINATION_NONE);
+			writeString(r, null);
+		}
+		r.writeLong(m.getJMSTimestamp());
+		r.writeLong(m.getJMSExpiration());
+		r.writeInt(m.getJMSPriority());
+		r.writeInt(m.getJMSDeliveryMode());
+		r.writeBoolean(m.getJMSRedelivered());
+		writeProperties(r, m);
+		r.flush();
+		String text = null;
+		long length = 0;
+		if (bodyType == LoggedMessage.BODY_TEXT) {
+			text = ((TextMessage)m).getText();
+			length = text != null ? utf8Length(text) : 0;
+		} else if (bodyType == LoggedMessage.BODY_BYTES) {
+			length = ((BytesMessage)m).getBodyLength();
+		}
+		int bodyPrefix = bodyType != LoggedMessage.BODY_NONE ? 4 : 0;
+		long size = record.size() + bodyPrefix + length;
+		if (size > Integer.MAX_VALUE) {
+			throw new IOException("Body of " + length + " bytes is too large for message log.");
+		}
+		out.writeInt((int)size);
+		record.writeTo(out);
+		if (bodyType == LoggedMessage.BODY_TEXT) {
+			out.writeInt(text != null ? (int)length : -1);
+			if (text != null) {
+				writeText(text, length);
+			}
+		} else if (bodyType == LoggedMessage.BODY_BYTES) {
+			out.writeInt((int)length);
+			writeBytes((BytesMessage)m, length);
+		}
+		count++;
+		bytes += 4 + size;
+	}
+	
+	private void writeText(String text, long length) throws IOException {
+		CharBuffer in = CharBuffer.wrap(text);
+		long written = 0;
+		encoder.reset();
+		bb.clear();
+		boolean flushed = false;
+		while (!flushed) {
+			CoderResult result = encoder.encode(in, bb, true);
+			if (result.isUnderflow()) {
+				result = encoder.flush(bb);
+				flushed = result.isUnderflow();
+			}
+			out.write(buffer, 0, bb.position());
+			written += bb.position();
+			bb.clear();
+		}
+		if (written != length) {
+			throw new IOException("Encoded text is " + written + " bytes, expected " + length + ".");
+		}
+	}
+	
+	private void writeBytes(BytesMessage bm, long length) throws JMSException, IOException {
+		bm.reset();
+		long written = 0;
+		int c;
+		while ((c = bm.readBytes(buffer, buffer.length)) > 0) {
+			out.write(buffer, 0, c);
+			written += c;
+		}
+		if (written != length) {
+			throw new IOException("Body was " + written + " bytes, expected " + length + ".");
+		}
+	}
+	
+	/**
+	 * Length of the text in UTF-8 without encoding it. Unpaired surrogates
+	 * are replaced with one byte, as by the encoder.
+	 */
+	static long utf8Length(String s) {
+		long length = 0;
+		int n = s.length();
+		for (int i = 0; i < n; i++) {
+			char c = s.charAt(i);
+			if (c < 0x80) {
+				length++;
+			} else if (c < 0x800) {
+				length += 2;
+			} else if (Character.isHighSurrogate(c) && i + 1 < n && Character.isLowSurrogate(s.charAt(i + 1))) {
+				length += 4;
+				i++;
+			} else if (c >= Character.MIN_SURROGATE && c <= Character.MAX_SURROGATE) {
+				length++;
+			} else {
+				length += 3;
+			}
+		}
+		
+		return length;
+	}
+	
+	/**
+	 * @return count of messages written
+	 */
+	public long getCount() {
+		return count;
+	}
+	
+	/**
+	 * @return bytes written, excluding file header
+	 */
+	public long getBytes() {
+		return bytes;
+	}
+	
+	public void flush() throws IOException {
+		out.flush();
+	}
+	
+	public void close() throws IOException {
+		out.close();
+	}
+	
+	private void writeProperties(DataOutputStream r, Message m) throws JMSException, IOException {
+		int n = 0;
+		Enumeration<?> names = m.getPropertyNames();
+		while (names.hasMoreElements()) {
+			names.nextElement();
+			n++;
+		}
+		r.writeInt(n);
+		names = m.getPropertyNames();
+		while (names.hasMoreElements()) {
+			String name = (String)names.nextElement();
+			Object value = m.getObjectProperty(name);
+			writeString(r, name);
+			if (value instanceof Boolean) {
+				r.writeByte(PROPERTY_BOOLEAN);
+				r.writeBoolean((Boolean)value);
+			} else if (value instanceof Byte) {
+				r.writeByte(PROPERTY_BYTE);
+				r.writeByte((Byte)value);
+			} else if (value instanceof Short) {
+				r.writeByte(PROPERTY_SHORT);
+				r.writeShort((Short)value);
+			} else if (value instanceof Integer) {
+				r.writeByte(PROPERTY_INT);
+				r.writeInt((Integer)value);
+			} else if (value instanceof Long) {
+				r.writeByte(PROPERTY_LONG);
+				r.writeLong((Long)value);
+			} else if (value instanceof Float) {
+				r.writeByte(PROPERTY_FLOAT);
+				r.writeFloat((Float)value);
+			} else if (value instanceof Double) {
+				r.writeByte(PROPERTY_DOUBLE);
+				r.writeDouble((Double)value);
+			} else {
+				r.writeByte(PROPERTY_STRING);
+				writeString(r, value != null ? value.toString() : null);
+			}
+		}
+	}
+	
+	private static void writeString(DataOutputStream r, String s) throws IOException {
+		if (s == null) {
+			r.writeInt(-1);
+		} else {
+			byte[] b = s.getBytes(UTF8);
+			r.writeInt(b.length);
+			r.write(b);
+		}
+	}
+}
@@ -0,0 +1,293 @@
+package fi.toje.himmeli.jmslibrary;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.jms.BytesMessage;
+import javax.jms.JMSException;
+import javax.jms.TextMessage;
+
+/**
+ * Message body with placeholders, parsed once. Placeholders are written as
+ * ${name}: ${sequence} is replaced with the next sequence number of the
+ * template (starting from 1), ${uuid} with a random UUID, ${timestamp}
+ * with current time in milliseconds since epoch and other names with
+ * given values. $${ is a literal ${.
+ *
+ * Templates loaded from files are cached JVM-wide and reloaded when the
+ * file changes. Template is immutable apart from the sequence and can be
+ * shared; rendering is done with a Renderer which reuses its buffers.
+ */
+public class MessageTemplate {
+
+	public static final String SEQUENCE = "sequence";
+	public static final String UUID_NAME = "uuid";
+	public static final String TIMESTAMP = "timestamp";
+	
+	private static final int KIND_VALUE = 0;
+	private static final int KIND_SEQUENCE = 1;
+	private static final int KIND_UUID = 2;
+	private static final int KIND_TIMESTAMP = 3;
+	private static final int CACHE_SIZE = 64;
+	
+	private static final LruCache<String, MessageTemplate> cache = new LruCache<String, MessageTemplate>(CACHE_SIZE);
+	
+	private final String[] literals;
+	private final int[] kinds;
+	private final String[] names;
+	private final int sizeHint;
+	private final AtomicLong sequence = new AtomicLong();
+	private long lastModified;
+	private long length;
+	
+	private MessageTemplate(String[] literals, int[] kinds, String[] names, int sizeHint) {
+		this.literals = literals;
+		this.kinds = kinds;
+		this.names = names;
+		this.sizeHint = sizeHint;
+	}
+	
+	/**
+	 * @param text
+	 * @return compiled template
+	 * @throws IllegalArgumentException if a placeholder is not terminated
+	 */
+	public static MessageTemplate compile(String text) {
+		List<String> literals = new ArrayList<String>();
+		List<String> names = new ArrayList<String>();
+		StringBuilder literal = new StringBuilder();
+		int i = 0;
+		while (i < text.length()) {
+			if (text.startsWith("$${", i)) {
+				literal.append("${");
+				i += 3;
+			} else if (text.startsWith("${", i)) {
+				int end = text.indexOf('}', i + 2);
+				if (end < 0) {
+					throw new IllegalArgumentException("Unterminated placeholder at " + i + ".");
+				}
+				literals.add(literal.toString());
+				literal.setLength(0);
+				names.add(text.substring(i + 2, end).trim());
+				i = end + 1;
+			} else {
+				literal.append(text.charAt(i++));
+			}
+		}
+		literals.add(literal.toString());
+		int[] kinds = new int[names.size()];
+		for (int j = 0; j < kinds.length; j++) {
+			String name = names.get(j);
+			if (SEQUENCE.equals(name)) {
+				kinds[j] = KIND_SEQUENCE;
+			} else if (UUID_NAME.equals(name)) {
+				kinds[j] = KIND_UUID;
+			} else if (TIMESTAMP.equals(name)) {
+				kinds[j] = KIND_TIMESTAMP;
+			} else {
+				kinds[j] = KIND_VALUE;
+			}
+		}
+		
+		return new MessageTemplate(literals.toArray(new String[literals.size()]), kinds, names.toArray(new String[names.size()]), text.length() + 16 * kinds.length);
+	}
+	
+	/**
+	 * Returns cached template of the file, or reads and compiles it if not
+	 * cached or the file has changed.
+	 *
+	 * @param file template file
+	 * @param charset of the file
+	 * @return
+	 * @throws IOException
+	 */
+	public static MessageTemplate load(String file, String charset) throws IOException {
+		File f = new File(file);
+		String key = f.getCanonicalPath() + '|' + charset;
+		synchronized (cache) {
+			MessageTemplate template = cache.get(key);
+			if (template != null && template.lastModified == f.lastModified() && template.length == f.length()) {
+				return template;
+			}
+		}
+		RandomAccessFile raf = new RandomAccessFile(f, "r");
+		byte[] bytes;
+		try {
+			bytes = new byte[(int)raf.length()];
+			raf.readFully(bytes);
+		} finally {
+			raf.close();
+		}
+		MessageTemplate template = compile(new String(bytes, charset));
+		template.lastModified = f.lastModified();
+		template.length = bytes.length;
+		synchronized (cache) {
+			cache.put(key, template);
+		}
+		
+		return template;
+	}
+	
+	/**
+	 * Empties the cache of loaded templates.
+	 */
+	public static void clearCache() {
+		synchronized (cache) {
+			cache.clear();
+		}
+	}
+	
+	/**
+	 * @return next sequence number, first is 1
+	 */
+	public long nextSequence() {
+		return sequence.incrementAndGet();
+	}
+	
+	/**
+	 * Starts the sequence again from 1.
+	 */
+	public void resetSequence() {
+		sequence.set(0);
+	}
+	
+	/**
+	 * @return names of value placeholders, excluding sequence, uuid and
+	 * timestamp
+	 */
+	public List<String> getValueNames() {
+		List<String> list = new ArrayList<String>();
+		for (int i = 0; i < kinds.length; i++) {
+			if (kinds[i] == KIND_VALUE && !list.contains(names[i])) {
+				list.add(names[i]);
+			}
+		}
+		
+		return list;
+	}
+	
+	/**
+	 * Renders templates into message bodies. Text and bytes are built in
+	 * buffers reused between messages. Not thread safe.
+	 */
+	public static class Renderer {
+		
+		private final StringBuilder text = new StringBuilder();
+		private final CharsetEncoder encoder;
+		private ByteBuffer bytes;
+		
+		/**
+		 * @param charset for bytes messages, may be null if only text
+		 * messages are rendered
+		 */
+		public Renderer(String charset) {
+			if (charset != null) {
+				encoder = Charset.forName(charset).newEncoder().onMalformedInput(CodingErrorAction.REPLACE).onUnmappableCharacter(CodingErrorAction.REPLACE);
+			} else {
+				encoder = null;
+			}
+		}
+		
+		/**
+		 * @param template
+		 * @param values of value placeholders
+		 * @return rendered text, valid until next render
+		 * @throws IllegalArgumentException if value of a placeholder is
+		 * missing
+		 */
+		public CharSequence render(MessageTemplate template, Map<String, String> values) {
+			text.setLength(0);
+			text.ensureCapacity(template.sizeHint);
+			long sequence = -1;
+			for (int i = 0; i < template.kinds.length; i++) {
+				text.append(template.literals[i]);
+				switch (template.kinds[i]) {
+				case KIND_SEQUENCE:
+					if (sequence < 0) {
+						sequence = template.nextSequence();
+					}
+					text.append(sequence);
+					break;
+				case KIND_UUID:
+					text.append(UUID.randomUUID().toString());
+					break;
+				case KIND_TIMESTAMP:
+					text.append(System.currentTimeMillis());
+					break;
+				default:
+					String value = values != null ? values.get(template.names[i]) : null;
+					if (value == null) {
+						throw new IllegalArgumentException("No value for placeholder '" + template.names[i] + "'.");
+					}
+					text.append(value);
+				}
+			}
+			text.append(template.literals[template.kinds.length]);
+			
+			return text;
+		}
+		
+		/**
+		 * Sets rendered text as body.
+		 *
+		 * @return length of the body in characters
+		 */
+		public int render(MessageTemplate template, Map<String, String> values, TextMessage message) throws JMSException {
+			CharSequence cs = render(template, values);
+			message.setText(cs.toString());
+			
+			return cs.length();
+		}
+		
+		/**
+		 * Replaces body with rendered text encoded in the charset.
+		 *
+		 * @return length of the body in bytes
+		 */
+		public int render(MessageTemplate template, Map<String, String> values, BytesMessage message) throws JMSException, CharacterCodingException {
+			if (encoder == null) {
+				throw new IllegalStateException("Charset is not specified.");
+			}
+			CharBuffer in = CharBuffer.wrap(render(template, values));
+			if (bytes == null || bytes.capacity() < text.length()) {
+				bytes = ByteBuffer.allocate((int)(text.length() * encoder.averageBytesPerChar()) + 16);
+			}
+			encoder.reset();
+			bytes.clear();
+			while (true) {
+				CoderResult result = encoder.encode(in, bytes, true);
+				if (result.isUnderflow()) {
+					result = encoder.flush(bytes);
+				}
+				if (result.isUnderflow()) {
+					break;
+				}
+				if (result.isOverflow()) {
+					ByteBuffer larger = ByteBuffer.allocate(bytes.capacity() * 2);
+					bytes.flip();
+					larger.put(bytes);
+					bytes = larger;
+				} else {
+					result.throwException();
+				}
+			}
+			message.clearBody();
+			message.writeBytes(bytes.array(), 0, bytes.position());
+			
+			return bytes.position();
+		}
+	}
+}
@@ -14,6 +14,19 @@ public class Options {
 	public static final String SETTINGS_KW_TYPE = "type";
 	public static final String SETTINGS_KW_USERNAME = "username";
 	public static final String SETTINGS_KW_PASSWORD = "password";
+	public static final String SETTINGS_KW_THREADS = "threads";
+	public static final String SETTINGS_KW_COUNT = "count";
+	public static final String SETTINGS_KW_RATE = "rate";
+	public static final String SETTINGS_KW_DURATION = "duration";
+	public static final String SETTINGS_KW_CACHE = "cache";
+	public static final String SETTINGS_KW_POOLED = "pooled";
+	public static final String SETTINGS_KW_SPEED = "speed";
+	public static final String SETTINGS_KW_COMMIT_BATCH = "commit_batch";
+	public static final String SETTINGS_KW_BATCH_SIZE = "batch_size";
+	public static final String SETTINGS_KW_IDLE_TIMEOUT = "idle_timeout";
+	public static final String SETTINGS_KW_SIZE = "size";
+	public static final String SETTINGS_KW_TIMEOUT = "timeout";
+	public static final String SETTINGS_KW_CHARSET = "charset";
 	
 	public static final String AUTO_ACKNOWLEDGE = "AUTO_ACKNOWLEDGE";
 	public static final String CLIENT_ACKNOWLEDGE = "CLIENT_ACKNOWLEDGE";
@@ -26,6 +39,9 @@ public class Options {
 	public static final String DESTINATION_TYPE_QUEUE = "queue";
 	public static final String DESTINATION_TYPE_TOPIC = "topic";
 	
+	public static final String DEFAULT_ALIAS = "default";
+	public static final String DEFAULT_CHARSET = "UTF-8";
+	
 	/**
 	 * 
 	 * @param delivery
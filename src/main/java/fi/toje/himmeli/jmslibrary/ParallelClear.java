@@ -0,0 +1,181 @@
+package fi.toje.himmeli.jmslibrary;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.jms.JMSException;
+import javax.jms.MessageConsumer;
+import javax.jms.Session;
+
+/**
+ * Clears several queues and durable subscriptions concurrently. Each
+ * thread has its own transacted session on the same connection and takes
+ * the next destination when the previous one is empty, so the whole run
+ * takes about as long as the slowest destination.
+ *
+ * Durable subscription is given as durable:topic:subscription, other
+ * names are queues. The connection must be started, and for durable
+ * subscriptions have the client ID of the subscriptions.
+ */
+public class ParallelClear {
+
+	public static final String DURABLE_PREFIX = "durable:";
+	
+	private final ProviderConnection providerConnection;
+	private int threads = 4;
+	private int batchSize = 100;
+	private long idleTimeout = 100;
+	private final AtomicInteger next = new AtomicInteger();
+	
+	public ParallelClear(ProviderConnection providerConnection) {
+		this.providerConnection = providerConnection;
+	}
+	
+	/**
+	 * @param threads maximum count of threads and sessions
+	 */
+	public void setThreads(int threads) {
+		this.threads = threads;
+	}
+	
+	/**
+	 * @param batchSize messages per commit, at least 1
+	 */
+	public void setBatchSize(int batchSize) {
+		this.batchSize = Math.max(batchSize, 1);
+	}
+	
+	/**
+	 * @param idleTimeout milliseconds to wait before a destination is
+	 * considered empty
+	 */
+	public void setIdleTimeout(long idleTimeout) {
+		this.idleTimeout = idleTimeout;
+	}
+	
+	/**
+	 * @param destinations queues and durable:topic:subscription entries
+	 * @return consumed message count per destination, in given order
+	 * @throws Exception if clearing of any destination failed, others are
+	 * cleared anyway
+	 */
+	public Map<String, Long> run(List<String> destinations) throws Exception {
+		if (threads < 1) {
+			throw new Exception("Invalid thread count: " + threads + ".");
+		}
+		next.set(0);
+		long[] counts = new long[destinations.size()];
+		String[] failures = new String[destinations.size()];
+		int n = Math.min(threads, destinations.size());
+		List<Worker> workers = new ArrayList<Worker>();
+		try {
+			for (int i = 0; i < n; i++) {
+				workers.add(new Worker(providerConnection.createSession(true, Session.SESSION_TRANSACTED), destinations, counts, failures));
+			}
+		} catch (JMSException e) {
+			for (Worker w : workers) {
+				w.close();
+			}
+			throw e;
+		}
+		
+		ExecutorService executor = Executors.newFixedThreadPool(Math.max(n, 1));
+		try {
+			List<Future<Void>> futures = new ArrayList<Future<Void>>();
+			for (Worker w : workers) {
+				futures.add(executor.submit(w));
+			}
+			for (Future<Void> f : futures) {
+				try {
+					f.get();
+				} catch (ExecutionException e) {
+					throw new Exception("Clear thread failed: " + e.getCause());
+				}
+			}
+		} finally {
+			executor.shutdownNow();
+			for (Worker w : workers) {
+				w.close();
+			}
+		}
+		
+		Map<String, Long> result = new LinkedHashMap<String, Long>();
+		StringBuilder failed = new StringBuilder();
+		for (int i = 0; i < counts.length; i++) {
+			result.put(destinations.get(i), counts[i]);
+			if (failures[i] != null) {
+				failed.append(failed.length() > 0 ? ", " : "").append(destinations.get(i)).append(": ").append(failures[i]);
+			}
+		}
+		if (failed.length() > 0) {
+			throw new Exception("Clearing failed: " + failed + ".");
+		}
+		
+		return result;
+	}
+	
+	private class Worker implements Callable<Void> {
+		
+		private final Session session;
+		private final List<String> destinations;
+		private final long[] counts;
+		private final String[] failures;
+		
+		Worker(Session session, List<String> destinations, long[] counts, String[] failures) {
+			this.session = session;
+			this.destinations = destinations;
+			this.counts = counts;
+			this.failures = failures;
+		}
+		
+		@Override
+		public Void call() throws Exception {
+			int i;
+			while ((i = next.getAndIncrement()) < destinations.size()) {
+				try {
+					counts[i] = clear(destinations.get(i));
+				} catch (JMSException e) {
+					failures[i] = e.toString();
+					session.rollback();
+				}
+			}
+			
+			return null;
+		}
+		
+		private long clear(String destination) throws JMSException {
+			MessageConsumer consumer;
+			if (destination.startsWith(DURABLE_PREFIX)) {
+				String s = destination.substring(DURABLE_PREFIX.length());
+				int colon = s.lastIndexOf(':');
+				if (colon < 0) {
+					throw new JMSException("Subscription name missing.");
+				}
+				consumer = session.createDurableSubscriber(session.createTopic(s.substring(0, colon)), s.substring(colon + 1));
+			} else {
+				consumer = session.createConsumer(session.createQueue(destination));
+			}
+			try {
+				return new Drain(session, batchSize, idleTimeout).run(consumer).getCount();
+			} finally {
+				consumer.close();
+			}
+		}
+		
+		void close() {
+			try {
+				session.close();
+			} catch (JMSException e) {
+				System.out.println("Closing clear session failed: " + e);
+			}
+		}
+	}
+}
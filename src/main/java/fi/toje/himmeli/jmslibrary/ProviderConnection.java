@@ -1,15 +1,82 @@
 package fi.toje.himmeli.jmslibrary;
 
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
 import javax.jms.Connection;
 import javax.jms.JMSException;
+import javax.jms.Session;
+import javax.management.ObjectName;
 
+/**
+ * Connection with named sessions. Each session has its own producer and
+ * consumer. One of them is the current session.
+ */
 public class ProviderConnection {
 	
 	private Connection connection;
-	private ProviderSession providerSession;
+	private Map<String, ProviderSession> sessions = new LinkedHashMap<String, ProviderSession>();
+	private String sessionAlias = Options.DEFAULT_ALIAS;
+	private ConnectionPool pool;
+	private JmsStatistics statistics = new JmsStatistics();
+	private ObjectName statisticsName;
 	
 	public ProviderConnection(Connection connection) throws Exception {
 		this.connection = connection;
+		registerStatistics();
+	}
+	
+	/**
+	 * @param connection leased from the pool
+	 * @param pool where the connection is returned on close
+	 * @throws Exception
+	 */
+	public ProviderConnection(Connection connection, ConnectionPool pool) throws Exception {
+		this.connection = connection;
+		this.pool = pool;
+		registerStatistics();
+	}
+	
+	/**
+	 * Registers statistics as MBean for the lifetime of the connection.
+	 * Failure is only logged.
+	 */
+	private void registerStatistics() {
+		try {
+			ObjectName name = new ObjectName(JmsStatistics.class.getPackage().getName() + ":type=JmsStatistics,id=" + System.identityHashCode(this));
+			ManagementFactory.getPlatformMBeanServer().registerMBean(statistics, name);
+			statisticsName = name;
+		} catch (Exception e) {
+			System.out.println("Statistics MBean not registered: " + e);
+		}
+	}
+	
+	private void unregisterStatistics() {
+		if (statisticsName != null) {
+			try {
+				ManagementFactory.getPlatformMBeanServer().unregisterMBean(statisticsName);
+			} catch (Exception e) {
+				System.out.println("Statistics MBean not unregistered: " + e);
+			}
+			statisticsName = null;
+		}
+	}
+	
+	/**
+	 * @return statistics of all sessions of the connection
+	 */
+	public JmsStatistics getStatistics() {
+		return statistics;
+	}
+	
+	/**
+	 * @return name of the registered MBean or null
+	 */
+	public ObjectName getStatisticsName() {
+		return statisticsName;
 	}
 	
 	public void setClientId(String clientId) throws JMSException {
@@ -39,25 +106,86 @@ public class ProviderConnection {
 	}
 	
 	/**
-	 * Closes connection. Also closes session.
+	 * Closes connection, or returns it to the pool if leased. Also closes
+	 * all sessions.
 	 * 
-	 * @throws JMSException
+	 * @throws Exception
+	 */
+	public void close() throws Exception {
+		unregisterStatistics();
+		try {
+			stop();
+		} finally {
+			try {
+				closeSessions();
+			} finally {
+				if (pool != null) {
+					pool.release(connection);
+				} else {
+					connection.close();
+				}
+			}
+		}
+	}
+	
+	/**
+	 * Closes all sessions, also after one of them fails.
 	 */
-	public void close() throws JMSException {
-		stop();
-		if (providerSession != null) {
-			providerSession.close();
+	private void closeSessions() throws JMSException {
+		JMSException error = null;
+		for (ProviderSession ps : sessions.values()) {
+			try {
+				ps.close();
+			} catch (JMSException e) {
+				error = e;
+			}
+		}
+		sessions.clear();
+		if (error != null) {
+			throw error;
 		}
-		connection.close();
 	}
 	
+	public boolean isPooled() {
+		return pool != null;
+	}
+	
+	/**
+	 * Creates additional session for the connection. Caller is responsible
+	 * for closing it.
+	 * 
+	 * @param transacted
+	 * @param type
+	 * @return
+	 * @throws JMSException
+	 */
+	public Session createSession(boolean transacted, int type) throws JMSException {
+		return connection.createSession(transacted, type);
+	}
+	
+	/**
+	 * @return current session or null if not initialized
+	 */
 	public ProviderSession getProviderSession() {
-		return providerSession;
+		return sessions.get(sessionAlias);
+	}
+	
+	/**
+	 * Closes idle cached consumers of all sessions, returning their
+	 * prefetched messages to the provider.
+	 * 
+	 * @throws JMSException
+	 */
+	public void evictIdleConsumers() throws JMSException {
+		for (ProviderSession ps : sessions.values()) {
+			ps.evictIdleConsumers();
+		}
 	}
 	
 	/**
-	 * Initializes new session for connection. Closes existing producer,
-	 * consumer and session if needed.
+	 * Initializes new session for connection as the current session. Closes
+	 * existing producer, consumer and session if needed. Destinations cached
+	 * by the previous session are discarded.
 	 * 
 	 * @param transacted
 	 * @param type AUTO_ACKNOWLEDGE, CLIENT_ACKNOWLEDGE, DUPS_OK_ACKNOWLEDGE,
@@ -65,9 +193,63 @@ public class ProviderConnection {
 	 * @throws JMSException
 	 */
 	public void initSession(boolean transacted, int type) throws Exception {
-		if (providerSession != null) {
-			providerSession.close();
+		openSession(sessionAlias, transacted, type);
+	}
+	
+	/**
+	 * Initializes new named session and makes it current. Closes existing
+	 * session of the alias.
+	 * 
+	 * @param alias
+	 * @param transacted
+	 * @param type AUTO_ACKNOWLEDGE, CLIENT_ACKNOWLEDGE, DUPS_OK_ACKNOWLEDGE,
+	 * SESSION_TRANSACTED
+	 * @throws Exception
+	 */
+	public void openSession(String alias, boolean transacted, int type) throws Exception {
+		ProviderSession previous = sessions.remove(alias);
+		if (previous != null) {
+			previous.close();
 		}
-		providerSession = new ProviderSession(connection.createSession(transacted, type));
+		ProviderSession ps = new ProviderSession(connection.createSession(transacted, type));
+		ps.setStatistics(statistics);
+		sessions.put(alias, ps);
+		sessionAlias = alias;
+	}
+	
+	/**
+	 * Makes the named session current.
+	 * 
+	 * @param alias
+	 * @throws Exception if no such session
+	 */
+	public void switchSession(String alias) throws Exception {
+		if (!sessions.containsKey(alias)) {
+			throw new Exception("No session '" + alias + "'.");
+		}
+		sessionAlias = alias;
+	}
+	
+	/**
+	 * Closes the named session. If it was current, there is no current
+	 * session until one is switched to or initialized.
+	 * 
+	 * @param alias
+	 * @throws Exception if no such session
+	 */
+	public void closeSession(String alias) throws Exception {
+		ProviderSession ps = sessions.remove(alias);
+		if (ps == null) {
+			throw new Exception("No session '" + alias + "'.");
+		}
+		ps.close();
+	}
+	
+	public String getSessionAlias() {
+		return sessionAlias;
+	}
+	
+	public List<String> getSessionAliases() {
+		return new ArrayList<String>(sessions.keySet());
 	}
 }
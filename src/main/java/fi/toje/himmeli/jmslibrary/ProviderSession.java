@@ -1,37 +1,79 @@
 package fi.toje.himmeli.jmslibrary;
 
-import java.io.File;
+import java.io.ByteArrayInputStream;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.UnsupportedEncodingException;
+import java.io.InputStream;
 import java.util.Enumeration;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.zip.Deflater;
 
 import javax.jms.BytesMessage;
 import javax.jms.Destination;
 import javax.jms.JMSException;
+import javax.jms.MapMessage;
 import javax.jms.Message;
 import javax.jms.MessageConsumer;
+import javax.jms.MessageNotReadableException;
 import javax.jms.MessageProducer;
+import javax.jms.ObjectMessage;
 import javax.jms.Queue;
 import javax.jms.QueueBrowser;
 import javax.jms.Session;
+import javax.jms.StreamMessage;
 import javax.jms.TextMessage;
 import javax.jms.Topic;
 
 public class ProviderSession {
 	
-	private static final int DEFAULT_BUFFER = 8192;
-	private static final long DEFAULT_RECEIVE_TIMEOUT = 100;
+	public static final long DEFAULT_RECEIVE_TIMEOUT = 100;
+	
+	private static final int DEFAULT_BUFFER = 65536;
+	private static final int DEFAULT_DESTINATION_CACHE_SIZE = 256;
+	// exchanges run one at a time on the keyword thread
+	private static final int REPLY_POOL_SIZE = 1;
+	private static final int CAPTURE_BATCH = 100;
 	
 	private Session session;
 	private MessageProducer producer;
 	private MessageConsumer consumer;
+	private Destination consumerDestination;
+	private String consumerSelector;
+	private String subscriptionName;
 	private Message message;
 	private Message lastReceivedMessage;
+	private LruCache<String, Queue> queues;
+	private LruCache<String, Topic> topics;
+	private ConsumerCache queueConsumers;
+	private MessageCapture capture;
+	private Session captureSession;
+	private LatencyRecorder latencyRecorder;
+	private ReplyPool replyPool;
+	private JmsStatistics statistics = new JmsStatistics();
+	private long createdSize;
+	private boolean compress;
+	private int compressionLevel = Deflater.DEFAULT_COMPRESSION;
+	private BodyCompression compression;
+	private int bufferSize = DEFAULT_BUFFER;
 	
 	public ProviderSession(Session session) throws JMSException {
+		this(session, DEFAULT_DESTINATION_CACHE_SIZE);
+	}
+	
+	/**
+	 * @param session
+	 * @param destinationCacheSize maximum count of cached queues and topics
+	 * (separately)
+	 * @throws JMSException
+	 */
+	public ProviderSession(Session session, int destinationCacheSize) throws JMSException {
 		this.session = session;
+		this.queues = new LruCache<String, Queue>(destinationCacheSize);
+		this.topics = new LruCache<String, Topic>(destinationCacheSize);
 		initProducer();
 	}
 	
@@ -48,22 +90,52 @@ public class ProviderSession {
 	}
 	
 	public void close() throws JMSException {
+		closeCaptureSession();
 		if (producer != null) {
 			producer.close();
 		}
 		if (consumer != null) {
 			consumer.close();
 		}
+		disableConsumerCache();
+		if (replyPool != null) {
+			replyPool.close();
+			replyPool = null;
+		}
 		if (session != null) {
 			session.close();
 		}
 		if (message != null) {
 			message = null;
 		}
+		queues.clear();
+		topics.clear();
+	}
+	
+	public JmsStatistics getStatistics() {
+		return statistics;
+	}
+	
+	/**
+	 * @param statistics where operations of the session are recorded, may be
+	 * shared with other sessions
+	 */
+	public void setStatistics(JmsStatistics statistics) {
+		this.statistics = statistics;
+	}
+	
+	public LruCache<String, Queue> getQueueCache() {
+		return queues;
+	}
+	
+	public LruCache<String, Topic> getTopicCache() {
+		return topics;
 	}
 	
 	public void createTextMessage(String text) throws JMSException {
+		long start = System.nanoTime();
 		message = session.createTextMessage(text);
+		statistics.record(JmsStatistics.CREATE_MESSAGE, start, text != null ? text.length() : 0);
 	}
 	
 	/**
@@ -74,67 +146,288 @@ public class ProviderSession {
 		return ((TextMessage)message).getText();
 	}
 	
-	public String getBytesAsString(String charset) throws JMSException, UnsupportedEncodingException {
-		long length = ((BytesMessage)message).getBodyLength();
-		byte[] bytes = new byte[(int)length];
-		((BytesMessage)message).readBytes(bytes, (int)length);
-		String text = new String(bytes, charset);
+	/**
+	 * Decodes the body in bounded buffers. Body is read from the beginning,
+	 * compressed body is decompressed while decoding.
+	 * 
+	 * @param charset
+	 * @return body of BytesMessage as text
+	 * @throws JMSException
+	 * @throws IOException
+	 */
+	public String getBytesAsString(String charset) throws JMSException, IOException {
+		BytesMessage bytesMessage = (BytesMessage)message;
+		if (BodyCompression.isCompressed(bytesMessage)) {
+			compression = new BodyCompression(bufferSize);
+			long size = bytesMessage.propertyExists(BodyCompression.ORIGINAL_SIZE_PROPERTY) ? bytesMessage.getLongProperty(BodyCompression.ORIGINAL_SIZE_PROPERTY) : 0;
+			InputStream in = compression.decompress(bytesMessage);
+			try {
+				return new TextScanner(charset, bufferSize).read(in, size);
+			} finally {
+				in.close();
+			}
+		}
+		bytesMessage.reset();
 		
-		return text;
+		return new TextScanner(charset, bufferSize).read(new BytesMessageInputStream(bytesMessage), bytesMessage.getBodyLength());
 	}
 	
 	/**
-	 * Creates BytesMessage from file.
+	 * Counts occurrences of text in body of BytesMessage without decoding
+	 * the whole body at once. Body is read from the beginning.
+	 * 
+	 * @param text
+	 * @param charset
+	 * @param max stops after max occurrences, 0 counts all
+	 * @return count of non-overlapping occurrences
+	 * @throws JMSException
+	 * @throws IOException
+	 */
+	public long countInBytes(String text, String charset, long max) throws JMSException, IOException {
+		BytesMessage bytesMessage = (BytesMessage)message;
+		if (BodyCompression.isCompressed(bytesMessage)) {
+			compression = new BodyCompression(bufferSize);
+			InputStream in = compression.decompress(bytesMessage);
+			try {
+				return new TextScanner(charset, bufferSize).count(in, text, max);
+			} finally {
+				in.close();
+			}
+		}
+		bytesMessage.reset();
+		
+		return new TextScanner(charset, bufferSize).count(new BytesMessageInputStream(bytesMessage), text, max);
+	}
+	
+	/**
+	 * Creates BytesMessage from file. File is copied through a bounded
+	 * buffer, or streamed through the compressor if compression is enabled.
 	 * 
 	 * @param file
+	 * @return byte count (of the file) and duration
 	 * @throws JMSException
 	 * @throws IOException
 	 */
-	public void createBytesMessage(String file) throws JMSException, IOException {
+	public Measurement createBytesMessage(String file) throws JMSException, IOException {
+		long start = System.nanoTime();
 		message = null;
-		FileInputStream fis = new FileInputStream(new File(file));
 		BytesMessage bytesMessage = session.createBytesMessage();
-		byte[] bytes = new byte[DEFAULT_BUFFER];
-		int c = 0;
-		int bytesCount = 0;
-		while ((c = fis.read(bytes)) > 0) {
-			bytesCount += c;
-			bytesMessage.writeBytes(bytes, 0, c);
-		}
-		System.out.println(bytesCount + " bytes read from " + file);
+		Measurement m;
+		if (compress) {
+			m = new Measurement();
+			m.start();
+			FileInputStream fis = new FileInputStream(file);
+			try {
+				compression = new BodyCompression(bufferSize);
+				compression.compress(fis, bytesMessage, compressionLevel);
+			} finally {
+				fis.close();
+			}
+			m.stop();
+			m.add(1, compression.getOriginalBytes());
+			createdSize = compression.getCompressedBytes();
+			System.out.println(m.getBytes() + " bytes read from " + file + ", compressed to " + createdSize);
+		} else {
+			m = new FileTransfer(bufferSize).read(file, bytesMessage);
+			System.out.println(m.getBytes() + " bytes read from " + file);
+			createdSize = m.getBytes();
+		}
 		message = bytesMessage;
-		fis.close();
+		statistics.record(JmsStatistics.CREATE_MESSAGE, start, createdSize);
+		
+		return m;
 	}
 	
 	public void createBytesMessage(String text, String charset) throws JMSException, IOException {
+		long start = System.nanoTime();
 		message = null;
 		BytesMessage bytesMessage = session.createBytesMessage();
 		byte[] bytes = text.getBytes(charset);
-		bytesMessage.writeBytes(bytes);
+		if (compress) {
+			compression = new BodyCompression(bufferSize);
+			compression.compress(new ByteArrayInputStream(bytes), bytesMessage, compressionLevel);
+			createdSize = compression.getCompressedBytes();
+		} else {
+			bytesMessage.writeBytes(bytes);
+			createdSize = bytes.length;
+		}
 		
 		System.out.println(bytes.length + " wrote to message.");
 		message = bytesMessage;
+		statistics.record(JmsStatistics.CREATE_MESSAGE, start, createdSize);
+	}
+	
+	/**
+	 * Creates TextMessage from template file.
+	 * 
+	 * @param file template in UTF-8
+	 * @param values of placeholders
+	 * @throws JMSException
+	 * @throws IOException
+	 * @see MessageTemplate
+	 */
+	public void createTextMessageFromTemplate(String file, Map<String, String> values) throws JMSException, IOException {
+		long start = System.nanoTime();
+		message = null;
+		MessageTemplate template = MessageTemplate.load(file, Options.DEFAULT_CHARSET);
+		TextMessage textMessage = session.createTextMessage();
+		int length = new MessageTemplate.Renderer(null).render(template, values, textMessage);
+		message = textMessage;
+		statistics.record(JmsStatistics.CREATE_MESSAGE, start, length);
+	}
+	
+	/**
+	 * Creates BytesMessage from template file.
+	 * 
+	 * @param file template in UTF-8
+	 * @param charset of the body
+	 * @param values of placeholders
+	 * @throws JMSException
+	 * @throws IOException
+	 */
+	public void createBytesMessageFromTemplate(String file, String charset, Map<String, String> values) throws JMSException, IOException {
+		long start = System.nanoTime();
+		message = null;
+		MessageTemplate template = MessageTemplate.load(file, Options.DEFAULT_CHARSET);
+		BytesMessage bytesMessage = session.createBytesMessage();
+		createdSize = new MessageTemplate.Renderer(charset).render(template, values, bytesMessage);
+		message = bytesMessage;
+		statistics.record(JmsStatistics.CREATE_MESSAGE, start, createdSize);
 	}
 	
 	/**
-	 * Writes BytesMessage's body into file.
+	 * @param values entries of the MapMessage
+	 * @throws JMSException
+	 * @see MessageBodies
+	 */
+	public void createMapMessage(Map<String, ?> values) throws JMSException {
+		long start = System.nanoTime();
+		message = null;
+		MapMessage mapMessage = session.createMapMessage();
+		MessageBodies.write(mapMessage, values);
+		message = mapMessage;
+		statistics.record(JmsStatistics.CREATE_MESSAGE, start, 0);
+	}
+	
+	/**
+	 * @return entries of MapMessage
+	 * @throws JMSException
+	 */
+	public Map<String, Object> getMapValues() throws JMSException {
+		return MessageBodies.read((MapMessage)message);
+	}
+	
+	/**
+	 * @param values written to StreamMessage in order
+	 * @throws JMSException
+	 */
+	public void createStreamMessage(List<?> values) throws JMSException {
+		long start = System.nanoTime();
+		message = null;
+		StreamMessage streamMessage = session.createStreamMessage();
+		MessageBodies.write(streamMessage, values);
+		message = streamMessage;
+		statistics.record(JmsStatistics.CREATE_MESSAGE, start, 0);
+	}
+	
+	/**
+	 * @return values of StreamMessage
+	 * @throws JMSException
+	 */
+	public List<Object> getStreamValues() throws JMSException {
+		return MessageBodies.read((StreamMessage)message);
+	}
+	
+	/**
+	 * @param object body of ObjectMessage, maps and lists are copied if not
+	 * serializable
+	 * @throws JMSException
+	 */
+	public void createObjectMessage(Object object) throws JMSException {
+		long start = System.nanoTime();
+		message = null;
+		message = session.createObjectMessage(MessageBodies.toSerializable(object));
+		statistics.record(JmsStatistics.CREATE_MESSAGE, start, 0);
+	}
+	
+	/**
+	 * @return body of ObjectMessage
+	 * @throws JMSException
+	 */
+	public Object getObject() throws JMSException {
+		return ((ObjectMessage)message).getObject();
+	}
+	
+	/**
+	 * Writes BytesMessage's body into file. The body is copied into the
+	 * file's channel through a buffer of buffer size bytes, reused for the
+	 * whole body. Compressed body is decompressed from the beginning.
 	 * 
 	 * @param file
+	 * @return byte count and duration
 	 * @throws IOException 
 	 * @throws JMSException 
 	 */
-	public void writeBytes(String file, boolean append) throws JMSException, IOException {
-		FileOutputStream fos = new FileOutputStream(new File(file), append);
-		BytesMessage bytesMessage = (BytesMessage)message;
-		byte[] bytes = new byte[DEFAULT_BUFFER];
-		int c = 0;
-		int bytesCount = 0;
-		while ((c = bytesMessage.readBytes(bytes, DEFAULT_BUFFER)) > 0) {
-			bytesCount += c;
-			fos.write(bytes, 0, c);
+	public Measurement writeBytes(String file, boolean append) throws JMSException, IOException {
+		if (BodyCompression.isCompressed(message)) {
+			Measurement m = new Measurement();
+			m.start();
+			FileOutputStream fos = new FileOutputStream(file, append);
+			try {
+				compression = new BodyCompression(bufferSize);
+				compression.decompress((BytesMessage)message, fos);
+			} finally {
+				fos.close();
+			}
+			m.stop();
+			m.add(1, compression.getOriginalBytes());
+			System.out.println(m.getBytes() + " bytes decompressed into " + file);
+			
+			return m;
 		}
-		System.out.println(bytesCount + " bytes wrote into " + file);
-		fos.close();
+		Measurement m = new FileTransfer(bufferSize).write((BytesMessage)message, file, append);
+		System.out.println(m.getBytes() + " bytes wrote into " + file);
+		
+		return m;
+	}
+	
+	/**
+	 * @param bufferSize bytes copied at a time between files and messages
+	 */
+	public void setBufferSize(int bufferSize) {
+		if (bufferSize < 1) {
+			throw new IllegalArgumentException("Invalid buffer size: " + bufferSize + ".");
+		}
+		this.bufferSize = bufferSize;
+	}
+	
+	/**
+	 * Compresses bodies of BytesMessages created after this.
+	 * 
+	 * @param level 1 (fastest) - 9 (best), -1 for default
+	 */
+	public void enableCompression(int level) {
+		if (level < -1 || level > 9) {
+			throw new IllegalArgumentException("Invalid compression level: " + level + ".");
+		}
+		compress = true;
+		compressionLevel = level;
+	}
+	
+	public void disableCompression() {
+		compress = false;
+	}
+	
+	/**
+	 * @return measurement of the latest compression or decompression, null
+	 * if none
+	 */
+	public BodyCompression getCompression() {
+		return compression;
+	}
+	
+	public int getBufferSize() {
+		return bufferSize;
 	}
 	
 	public void setJmsType(String type) throws JMSException {
@@ -248,14 +541,78 @@ public class ProviderSession {
 		return message.getStringProperty(name);
 	}
 	
+	public void setIntProperty(String name, int value) throws JMSException {
+		message.setIntProperty(name, value);
+	}
+	
+	public int getIntProperty(String name) throws JMSException {
+		return message.getIntProperty(name);
+	}
+	
+	public void setLongProperty(String name, long value) throws JMSException {
+		message.setLongProperty(name, value);
+	}
+	
+	public long getLongProperty(String name) throws JMSException {
+		return message.getLongProperty(name);
+	}
+	
+	public void setDoubleProperty(String name, double value) throws JMSException {
+		message.setDoubleProperty(name, value);
+	}
+	
+	public double getDoubleProperty(String name) throws JMSException {
+		return message.getDoubleProperty(name);
+	}
+	
+	public void setBooleanProperty(String name, boolean value) throws JMSException {
+		message.setBooleanProperty(name, value);
+	}
+	
+	public boolean getBooleanProperty(String name) throws JMSException {
+		return message.getBooleanProperty(name);
+	}
+	
+	/**
+	 * Sets several properties keeping the types of values.
+	 * 
+	 * @param values
+	 * @throws JMSException
+	 * @see MessageBodies#toPropertyValue(String, Object)
+	 */
+	public void setProperties(Map<String, ?> values) throws JMSException {
+		for (Map.Entry<String, ?> e : values.entrySet()) {
+			message.setObjectProperty(e.getKey(), MessageBodies.toPropertyValue(e.getKey(), e.getValue()));
+		}
+	}
+	
+	/**
+	 * @return all properties with typed values, in one pass over the
+	 * property names
+	 * @throws JMSException
+	 */
+	public Map<String, Object> getAllProperties() throws JMSException {
+		Map<String, Object> properties = new LinkedHashMap<String, Object>();
+		Enumeration<?> names = message.getPropertyNames();
+		while (names.hasMoreElements()) {
+			String name = (String)names.nextElement();
+			properties.put(name, message.getObjectProperty(name));
+		}
+		
+		return properties;
+	}
+	
 	public String getJmsMessageId() throws JMSException {
 		return message.getJMSMessageID();
 	}
 	
 	public void sendToQueue(String queue) throws Exception {
+		long start = System.nanoTime();
 		Queue q = getQueue(queue);
 		
+		stamp(message);
 		producer.send(q, message);
+		statistics.record(JmsStatistics.SEND, start, bodySize(message));
 	}
 	
 	public void receive() throws Exception {
@@ -266,8 +623,11 @@ public class ProviderSession {
 		message = null;
 		lastReceivedMessage = null;
 		if (consumer != null) {
+			long start = System.nanoTime();
 			message = consumer.receive(timeout);
+			statistics.record(JmsStatistics.RECEIVE, start, bodySize(message));
 			lastReceivedMessage = message;
+			record(message);
 			if (message == null) {
 				throw new Exception("No message available.");
 			}
@@ -296,9 +656,33 @@ public class ProviderSession {
 	 * @throws Exception
 	 */
 	public void receiveOnceFromQueue(String queue, long timeout) throws Exception {
+		receiveOnceFromQueue(queue, timeout, null);
+	}
+	
+	/**
+	 * Receives message matching the selector from queue. Creates consumer on
+	 * the fly (does not use the ProviderSession's consumer).
+	 * 
+	 * @param queue
+	 * @param timeout
+	 * @param selector message selector or null
+	 * @throws Exception
+	 */
+	public void receiveOnceFromQueue(String queue, long timeout, String selector) throws Exception {
+		long start = System.nanoTime();
 		message = null;
-		MessageConsumer queueConsumer = session.createConsumer(getQueue(queue));
+		MessageConsumer queueConsumer = null;
+		if (queueConsumers != null) {
+			queueConsumer = queueConsumers.get(queue, selector);
+		}
+		if (queueConsumer == null) {
+			queueConsumer = session.createConsumer(getQueue(queue), selector);
+			if (queueConsumers != null) {
+				queueConsumers.put(queue, selector, queueConsumer);
+			}
+		}
 		message = queueConsumer.receive(timeout);
+		record(message);
 		if (message != null) {
 			if (session.getTransacted()) {
 				session.commit();
@@ -308,16 +692,247 @@ public class ProviderSession {
 				}
 			}
 		}
-		queueConsumer.close();
+		if (queueConsumers == null) {
+			queueConsumer.close();
+		}
+		statistics.record(JmsStatistics.RECEIVE_ONCE, start, bodySize(message));
 		if (message == null) {
 			throw new Exception("No message available.");
 		}
 	}
 	
+	/**
+	 * Keeps the consumers created by receiveOnceFromQueue open for later
+	 * receives from the same queue. Consumer is closed if not used within
+	 * idle timeout. Cached consumer of a queue is closed before the queue is
+	 * cleared or consumed by the session's consumer, so that messages
+	 * prefetched by it are returned to the provider instead of being hidden.
+	 * 
+	 * @param idleTimeout milliseconds
+	 * @throws JMSException
+	 */
+	public void enableConsumerCache(long idleTimeout) throws JMSException {
+		disableConsumerCache();
+		queueConsumers = new ConsumerCache(idleTimeout);
+	}
+	
+	/**
+	 * Closes cached consumers. Unacknowledged and prefetched messages are
+	 * returned to the provider.
+	 * 
+	 * @throws JMSException
+	 */
+	public void disableConsumerCache() throws JMSException {
+		if (queueConsumers != null) {
+			ConsumerCache c = queueConsumers;
+			queueConsumers = null;
+			c.closeAll();
+		}
+	}
+	
+	public ConsumerCache getConsumerCache() {
+		return queueConsumers;
+	}
+	
+	/**
+	 * Closes cached consumers which have been idle longer than the idle
+	 * timeout, returning their prefetched messages to the provider.
+	 * 
+	 * @throws JMSException
+	 */
+	public void evictIdleConsumers() throws JMSException {
+		if (queueConsumers != null) {
+			queueConsumers.evictIdle();
+		}
+	}
+	
+	private void closeCachedConsumer(String queue) throws JMSException {
+		if (queueConsumers != null) {
+			queueConsumers.close(queue);
+		}
+	}
+	
+	/**
+	 * Sends the message to queue with JMSReplyTo set to a pooled temporary
+	 * queue and a new JMSCorrelationID, and receives the reply with the same
+	 * correlation ID. Replies to earlier requests are discarded. Commits the
+	 * request and the reply when the session is transacted, acknowledges the
+	 * reply in client acknowledge mode. The reply becomes the message.
+	 * 
+	 * @param queue
+	 * @param timeout milliseconds to wait for the reply
+	 * @return round-trip time in nanoseconds
+	 * @throws Exception if no reply received
+	 */
+	public long requestReply(String queue, long timeout) throws Exception {
+		if (message == null) {
+			throw new Exception("Message is not created.");
+		}
+		if (replyPool == null) {
+			replyPool = new ReplyPool(session, REPLY_POOL_SIZE);
+		}
+		Queue q = getQueue(queue);
+		String correlationId = UUID.randomUUID().toString();
+		ReplyPool.Entry entry = replyPool.acquire();
+		Message reply;
+		long elapsed;
+		try {
+			message.setJMSReplyTo(entry.getQueue());
+			message.setJMSCorrelationID(correlationId);
+			stamp(message);
+			long start = System.nanoTime();
+			producer.send(q, message);
+			if (session.getTransacted()) {
+				session.commit();
+			}
+			reply = entry.receive(correlationId, timeout);
+			elapsed = System.nanoTime() - start;
+			statistics.record(JmsStatistics.REQUEST_REPLY, start, bodySize(reply));
+		} finally {
+			replyPool.release(entry);
+		}
+		if (reply == null) {
+			throw new Exception("No reply received within " + timeout + " ms.");
+		}
+		message = reply;
+		record(message);
+		if (session.getTransacted()) {
+			session.commit();
+		} else if (session.getAcknowledgeMode() == Session.CLIENT_ACKNOWLEDGE) {
+			message.acknowledge();
+		}
+		
+		return elapsed;
+	}
+	
+	public ReplyPool getReplyPool() {
+		return replyPool;
+	}
+	
 	public void sendToTopic(String topic) throws Exception {
+		long start = System.nanoTime();
 		Topic t = getTopic(topic);
 		
+		stamp(message);
 		producer.send(t, message);
+		statistics.record(JmsStatistics.SEND, start, bodySize(message));
+	}
+	
+	/**
+	 * Sends current message to queue several times.
+	 * 
+	 * @param queue
+	 * @param count how many times message is sent
+	 * @param commitBatch in transacted session commits after every commitBatch
+	 * messages and after the last one, 0 leaves committing to the caller
+	 * @param sequenceProperty if not null, long property set to the sequence
+	 * number (1..count) of each message
+	 * @return
+	 * @throws JMSException
+	 */
+	public Measurement sendMessagesToQueue(String queue, int count, int commitBatch, String sequenceProperty) throws JMSException {
+		return sendMessages(getQueue(queue), count, commitBatch, sequenceProperty);
+	}
+	
+	/**
+	 * Sends current message to topic several times.
+	 * 
+	 * @see #sendMessagesToQueue(String, int, int, String)
+	 */
+	public Measurement sendMessagesToTopic(String topic, int count, int commitBatch, String sequenceProperty) throws JMSException {
+		return sendMessages(getTopic(topic), count, commitBatch, sequenceProperty);
+	}
+	
+	/**
+	 * Sends messages rendered from template file. One message is reused,
+	 * its body is rendered again for each send. Message becomes the last
+	 * sent message.
+	 * 
+	 * @param type queue or topic
+	 * @param destination
+	 * @param file template in UTF-8
+	 * @param charset body charset of BytesMessages, null sends TextMessages
+	 * @param count how many messages are sent
+	 * @param commitBatch in transacted session commits after every
+	 * commitBatch messages and after the last one, 0 leaves committing to
+	 * the caller
+	 * @param values of placeholders
+	 * @return count, body bytes (characters of text) and duration
+	 * @throws JMSException
+	 * @throws IOException
+	 */
+	public Measurement sendMessagesFromTemplate(String type, String destination, String file, String charset, int count, int commitBatch, Map<String, String> values) throws JMSException, IOException {
+		Destination d;
+		if (Options.DESTINATION_TYPE_TOPIC.equals(type)) {
+			d = getTopic(destination);
+		} else {
+			d = getQueue(destination);
+		}
+		MessageTemplate template = MessageTemplate.load(file, Options.DEFAULT_CHARSET);
+		MessageTemplate.Renderer renderer = new MessageTemplate.Renderer(charset);
+		TextMessage textMessage = null;
+		BytesMessage bytesMessage = null;
+		if (charset == null) {
+			message = textMessage = session.createTextMessage();
+		} else {
+			message = bytesMessage = session.createBytesMessage();
+		}
+		boolean commit = session.getTransacted() && commitBatch > 0;
+		Measurement measurement = new Measurement();
+		measurement.start();
+		int uncommitted = 0;
+		for (int i = 0; i < count; i++) {
+			long start = System.nanoTime();
+			int size;
+			if (textMessage != null) {
+				size = renderer.render(template, values, textMessage);
+			} else {
+				size = renderer.render(template, values, bytesMessage);
+				createdSize = size;
+			}
+			stamp(message);
+			producer.send(d, message);
+			statistics.record(JmsStatistics.SEND, start, size);
+			measurement.add(1, size);
+			if (commit && ++uncommitted == commitBatch) {
+				session.commit();
+				uncommitted = 0;
+			}
+		}
+		if (commit && uncommitted > 0) {
+			session.commit();
+		}
+		measurement.stop();
+		
+		return measurement;
+	}
+	
+	private Measurement sendMessages(Destination destination, int count, int commitBatch, String sequenceProperty) throws JMSException {
+		boolean commit = session.getTransacted() && commitBatch > 0;
+		long size = bodySize(message);
+		Measurement measurement = new Measurement();
+		measurement.start();
+		int uncommitted = 0;
+		for (int i = 1; i <= count; i++) {
+			if (sequenceProperty != null) {
+				message.setLongProperty(sequenceProperty, i);
+			}
+			long start = System.nanoTime();
+			stamp(message);
+			producer.send(destination, message);
+			statistics.record(JmsStatistics.SEND, start, size);
+			if (commit && ++uncommitted == commitBatch) {
+				session.commit();
+				uncommitted = 0;
+			}
+		}
+		if (commit && uncommitted > 0) {
+			session.commit();
+		}
+		measurement.stop();
+		measurement.add(count, 0);
+		
+		return measurement;
 	}
 	
 	/**
@@ -327,11 +942,25 @@ public class ProviderSession {
 	 * @throws JMSException
 	 */
 	public void initializeQueueConsumer(String queue) throws JMSException {
+		initializeQueueConsumer(queue, null);
+	}
+	
+	/**
+	 * Create queue consumer with message selector. Closes previous consumer
+	 * if existed.
+	 * 
+	 * @param queue
+	 * @param selector message selector or null
+	 * @throws JMSException
+	 */
+	public void initializeQueueConsumer(String queue, String selector) throws JMSException {
 		Queue q = getQueue(queue);
 		if (consumer != null) {
 			consumer.close();
 		}
-		consumer = session.createConsumer(q);
+		closeCachedConsumer(queue);
+		consumer = session.createConsumer(q, selector);
+		setConsumerSpec(q, selector, null);
 	}
 	
 	/**
@@ -341,11 +970,24 @@ public class ProviderSession {
 	 * @throws JMSException
 	 */
 	public void initializeTopicConsumer(String topic) throws JMSException {
+		initializeTopicConsumer(topic, null);
+	}
+	
+	/**
+	 * Subscribes to topic with message selector. Closes (unsubscribes)
+	 * previous consumer if existed.
+	 * 
+	 * @param topic
+	 * @param selector message selector or null
+	 * @throws JMSException
+	 */
+	public void initializeTopicConsumer(String topic, String selector) throws JMSException {
 		Topic t = getTopic(topic);
 		if (consumer != null) {
 			consumer.close();
 		}
-		consumer = session.createConsumer(t);
+		consumer = session.createConsumer(t, selector);
+		setConsumerSpec(t, selector, null);
 	}
 	
 	public void initProducer() throws JMSException {
@@ -383,6 +1025,25 @@ public class ProviderSession {
 			consumer.close();
 		}
 		consumer = session.createDurableSubscriber(t, name);
+		setConsumerSpec(t, null, name);
+	}
+	
+	/**
+	 * Durable subscription with message selector. Changing the selector of an
+	 * existing subscription replaces the subscription, refer JMS specs.
+	 * 
+	 * @param topic
+	 * @param name subscription name
+	 * @param selector message selector or null
+	 * @throws JMSException
+	 */
+	public void initializeDurableSubscriber(String topic, String name, String selector) throws JMSException {
+		Topic t = this.getTopic(topic);
+		if (consumer != null) {
+			consumer.close();
+		}
+		consumer = session.createDurableSubscriber(t, name, selector, false);
+		setConsumerSpec(t, selector, name);
 	}
 	
 	/**
@@ -414,8 +1075,11 @@ public class ProviderSession {
 		message = null;
 		lastReceivedMessage = message;
 		if (consumer != null) {
+			long start = System.nanoTime();
 			message = consumer.receive(timeout);
+			statistics.record(JmsStatistics.RECEIVE, start, bodySize(message));
 			lastReceivedMessage = message;
+			record(message);
 			if (message == null) {
 				throw new Exception("No message available");
 			}
@@ -424,6 +1088,130 @@ public class ProviderSession {
 		}
 	}
 	
+	/**
+	 * Moves the consumer to a session of its own and sets a listener which
+	 * collects the arriving messages into a buffer. Consumer must have been
+	 * initialized before. JMS does not allow other use of a session with a
+	 * message listener, so the consumer of this session is closed while
+	 * capturing and the session can be used for sending as usual.
+	 * 
+	 * Capture session is not transacted and uses the acknowledge mode of
+	 * this session, AUTO_ACKNOWLEDGE if this session is transacted.
+	 * 
+	 * @param connection where the capture session is created
+	 * @param capacity maximum count of buffered messages
+	 * @throws Exception
+	 */
+	public void startCapture(ProviderConnection connection, int capacity) throws Exception {
+		if (consumer == null || consumerDestination == null) {
+			throw new Exception("Consumer is not specified.");
+		}
+		stopCapture();
+		int mode = session.getTransacted() ? Session.AUTO_ACKNOWLEDGE : session.getAcknowledgeMode();
+		Session s = connection.createSession(false, mode);
+		try {
+			consumer.close();
+			consumer = null;
+			MessageCapture c = new MessageCapture(capacity);
+			createConsumer(s).setMessageListener(c);
+			capture = c;
+		} catch (JMSException e) {
+			s.close();
+			throw e;
+		}
+		captureSession = s;
+	}
+	
+	/**
+	 * Closes the capture session and creates the consumer again in this
+	 * session. Buffered messages can still be read.
+	 * 
+	 * @throws JMSException
+	 */
+	public void stopCapture() throws JMSException {
+		if (captureSession != null) {
+			closeCaptureSession();
+			consumer = createConsumer(session);
+		}
+	}
+	
+	private void closeCaptureSession() throws JMSException {
+		if (captureSession != null) {
+			Session s = captureSession;
+			captureSession = null;
+			// waits for the listener to return
+			s.close();
+		}
+	}
+	
+	private void setConsumerSpec(Destination destination, String selector, String subscription) {
+		consumerDestination = destination;
+		consumerSelector = selector;
+		subscriptionName = subscription;
+	}
+	
+	private MessageConsumer createConsumer(Session s) throws JMSException {
+		if (subscriptionName != null) {
+			return s.createDurableSubscriber((Topic)consumerDestination, subscriptionName, consumerSelector, false);
+		}
+		
+		return s.createConsumer(consumerDestination, consumerSelector);
+	}
+	
+	/**
+	 * Waits until at least count messages are buffered.
+	 * 
+	 * @param count
+	 * @param timeout milliseconds
+	 * @return true if count was reached within timeout
+	 * @throws Exception if capture has not been started
+	 */
+	public boolean waitForMessages(int count, long timeout) throws Exception {
+		return getCapture().await(count, timeout);
+	}
+	
+	/**
+	 * Takes the first buffered message as current message.
+	 * 
+	 * @param timeout milliseconds to wait if buffer is empty
+	 * @throws Exception if no message available
+	 */
+	public void receiveCaptured(long timeout) throws Exception {
+		long start = System.nanoTime();
+		message = null;
+		lastReceivedMessage = null;
+		message = getCapture().poll(timeout);
+		statistics.record(JmsStatistics.RECEIVE_CAPTURED, start, bodySize(message));
+		lastReceivedMessage = message;
+		record(message);
+		if (message == null) {
+			throw new Exception("No message available.");
+		}
+	}
+	
+	/**
+	 * Removes and returns all buffered messages.
+	 * 
+	 * @return
+	 * @throws Exception if capture has not been started
+	 */
+	public List<Message> getCapturedMessages() throws Exception {
+		List<Message> messages = getCapture().drain();
+		if (!messages.isEmpty()) {
+			lastReceivedMessage = messages.get(messages.size() - 1);
+		}
+		
+		return messages;
+	}
+	
+	public MessageCapture getCapture() throws Exception {
+		if (capture == null) {
+			throw new Exception("Message capture is not started.");
+		}
+		
+		return capture;
+	}
+	
 	/**
 	 * Acknowledges current message. Used if CLIENT_ACKNOWLEDGE mode in use.
 	 * 
@@ -449,6 +1237,7 @@ public class ProviderSession {
 	 * @throws Exception
 	 */
 	public int queueDepth(String queue) throws Exception {
+		long start = System.nanoTime();
 		int depth = 0;
 		Queue q = getQueue(queue);
 		QueueBrowser browser = session.createBrowser(q);
@@ -458,10 +1247,58 @@ public class ProviderSession {
 			depth++;
 		}
 		browser.close();
+		statistics.record(JmsStatistics.QUEUE_DEPTH, start, 0);
 		
 		return depth;
 	}
 	
+	/**
+	 * Browses the queue for the first message matching the selector and
+	 * text. Found message becomes the message, it stays in the queue.
+	 * 
+	 * @param queue
+	 * @param selector message selector or null
+	 * @param text body must contain, null matches all
+	 * @param charset of bytes message bodies
+	 * @return true if found
+	 * @throws JMSException
+	 * @throws IOException
+	 */
+	public boolean findInQueue(String queue, String selector, String text, String charset) throws JMSException, IOException {
+		long start = System.nanoTime();
+		QueueSearch search = new QueueSearch(session, charset, bufferSize);
+		search.setText(text);
+		boolean found = search.run(getQueue(queue), selector, 1) > 0;
+		statistics.record(JmsStatistics.BROWSE, start, 0);
+		if (found) {
+			message = search.getFirst();
+		}
+		
+		return found;
+	}
+	
+	/**
+	 * Counts messages matching the selector and text by browsing the queue.
+	 * 
+	 * @param queue
+	 * @param selector message selector or null
+	 * @param text body must contain, null matches all
+	 * @param charset of bytes message bodies
+	 * @param max stops browsing after max matching messages, 0 counts all
+	 * @return count, at most max
+	 * @throws JMSException
+	 * @throws IOException
+	 */
+	public int countInQueue(String queue, String selector, String text, String charset, int max) throws JMSException, IOException {
+		long start = System.nanoTime();
+		QueueSearch search = new QueueSearch(session, charset, bufferSize);
+		search.setText(text);
+		int count = search.run(getQueue(queue), selector, max);
+		statistics.record(JmsStatistics.BROWSE, start, 0);
+		
+		return count;
+	}
+	
 	/**
 	 * Clears the queue by reading all available messages. Also acknowledges or
 	 * commits depending on the configuration.
@@ -471,26 +1308,140 @@ public class ProviderSession {
 	 * @throws JMSException
 	 */
 	public int clearQueueOnce(String queue) throws JMSException {
-		int count = 0;
-		Message lastMessage = null;
-		MessageConsumer queueConsumer = session.createConsumer(getQueue(queue));
-		do {
-			lastMessage = queueConsumer.receive(DEFAULT_RECEIVE_TIMEOUT);
-			if (lastMessage != null) {
-				count++;
-				if (session.getTransacted()) {
-					session.commit();
-				} else {
-					if (session.getAcknowledgeMode() == Session.CLIENT_ACKNOWLEDGE) {
-						lastMessage.acknowledge();
+		return (int)clearQueueOnce(queue, 1, DEFAULT_RECEIVE_TIMEOUT).getCount();
+	}
+	
+	/**
+	 * Clears messages matching the selector from the queue. Other messages
+	 * are left untouched.
+	 * 
+	 * @param queue
+	 * @param selector message selector
+	 * @return message count that was consumed from the queue
+	 * @throws JMSException
+	 */
+	public int clearQueueOnce(String queue, String selector) throws JMSException {
+		return (int)clearQueueOnce(queue, selector, 1, DEFAULT_RECEIVE_TIMEOUT).getCount();
+	}
+	
+	/**
+	 * Clears the queue by reading all available messages. Acknowledges or
+	 * commits in batches depending on the configuration.
+	 * 
+	 * @param queue to be cleared
+	 * @param batchSize messages per commit or acknowledge
+	 * @param idleTimeout milliseconds to wait before the queue is considered
+	 * empty
+	 * @return message count that was consumed from the queue and duration
+	 * @throws JMSException
+	 */
+	public Measurement clearQueueOnce(String queue, int batchSize, long idleTimeout) throws JMSException {
+		return clearQueueOnce(queue, null, batchSize, idleTimeout);
+	}
+	
+	/**
+	 * Clears messages matching the selector from the queue in batches.
+	 * 
+	 * @param queue
+	 * @param selector message selector or null
+	 * @param batchSize messages per commit or acknowledge
+	 * @param idleTimeout milliseconds
+	 * @return message count that was consumed from the queue and duration
+	 * @throws JMSException
+	 */
+	public Measurement clearQueueOnce(String queue, String selector, int batchSize, long idleTimeout) throws JMSException {
+		long start = System.nanoTime();
+		closeCachedConsumer(queue);
+		MessageConsumer queueConsumer = session.createConsumer(getQueue(queue), selector);
+		try {
+			Measurement m = new Drain(session, batchSize, idleTimeout).run(queueConsumer);
+			statistics.record(JmsStatistics.CLEAR, start, 0);
+			
+			return m;
+		} finally {
+			queueConsumer.close();
+		}
+	}
+	
+	/**
+	 * Consumes messages from queue and appends them into message log file,
+	 * until the queue is empty or timeout elapses. Commits or acknowledges
+	 * in batches after the messages are written.
+	 * 
+	 * @param queue
+	 * @param file message log, created if missing
+	 * @param timeout milliseconds, 0 for no limit
+	 * @param idleTimeout milliseconds to wait for next message before the
+	 * queue is considered empty
+	 * @return count of messages and bytes written
+	 * @throws JMSException
+	 * @throws IOException
+	 */
+	public Measurement captureQueueToFile(String queue, String file, long timeout, long idleTimeout) throws JMSException, IOException {
+		long start = System.nanoTime();
+		closeCachedConsumer(queue);
+		final MessageLogWriter writer = new MessageLogWriter(file, bufferSize);
+		try {
+			MessageConsumer queueConsumer = session.createConsumer(getQueue(queue));
+			try {
+				Drain drain = new Drain(session, CAPTURE_BATCH, idleTimeout);
+				drain.setTimeout(timeout);
+				drain.setHandler(new Drain.Handler() {
+					@Override
+					public void handle(Message m) throws JMSException {
+						try {
+							writer.write(m);
+						} catch (IOException e) {
+							JMSException je = new JMSException("Writing message log failed: " + e);
+							je.setLinkedException(e);
+							throw je;
+						}
 					}
-				}
+				});
+				Measurement m = drain.run(queueConsumer);
+				m.add(0, writer.getBytes());
+				statistics.record(JmsStatistics.CAPTURE, start, writer.getBytes());
+				
+				return m;
+			} finally {
+				queueConsumer.close();
 			}
-		} while (lastMessage != null);
-		
-		queueConsumer.close();
+		} finally {
+			writer.close();
+		}
+	}
+	
+	/**
+	 * Sends messages of message log file with the producer, in their
+	 * original timing scaled by speed.
+	 * 
+	 * @param file message log
+	 * @param type queue or topic
+	 * @param destination
+	 * @param speed multiple of the original rate, 0 is as fast as possible
+	 * @param maxRate messages per second at most, 0 is unlimited
+	 * @param commitBatch messages per commit in transacted session
+	 * @return finished replay
+	 * @throws JMSException
+	 * @throws IOException
+	 */
+	public Replay replay(String file, String type, String destination, double speed, double maxRate, int commitBatch) throws JMSException, IOException {
+		long start = System.nanoTime();
+		Destination d;
+		if (Options.DESTINATION_TYPE_TOPIC.equals(type)) {
+			d = getTopic(destination);
+		} else {
+			d = getQueue(destination);
+		}
+		Replay replay = new Replay(session, producer, bufferSize);
+		replay.setSpeed(speed);
+		replay.setMaxRate(maxRate);
+		replay.setCommitBatch(commitBatch);
+		replay.setLatencyRecorder(latencyRecorder);
+		Measurement m = replay.run(file, d);
+		statistics.record(JmsStatistics.REPLAY, start, m.getBytes());
 		
-		return count;
+		return replay;
 	}
 	
 	/**
@@ -501,43 +1452,117 @@ public class ProviderSession {
 	 * @throws JMSException
 	 */
 	public int clear() throws JMSException {
-		int count = 0;
-		Message lastMessage = null;
-		do {
-			lastMessage = consumer.receive(DEFAULT_RECEIVE_TIMEOUT);
-			if (lastMessage != null) {
-				lastReceivedMessage = lastMessage;
-			}
-			if (lastMessage != null) {
-				count++;
+		return (int)clear(0, DEFAULT_RECEIVE_TIMEOUT).getCount();
+	}
+	
+	/**
+	 * Clears destination of the consumer. Subscribe (Durable) or queue
+	 * consumer must have been initialized before.
+	 * 
+	 * @param batchSize messages per commit or acknowledge, 0 does neither
+	 * @param idleTimeout milliseconds to wait before the destination is
+	 * considered empty
+	 * @return message count that was consumed and duration
+	 * @throws JMSException
+	 */
+	public Measurement clear(int batchSize, long idleTimeout) throws JMSException {
+		long start = System.nanoTime();
+		Drain drain = new Drain(session, batchSize, idleTimeout);
+		Measurement measurement = drain.run(consumer);
+		statistics.record(JmsStatistics.CLEAR, start, 0);
+		if (drain.getLastMessage() != null) {
+			lastReceivedMessage = drain.getLastMessage();
+		}
+		
+		return measurement;
+	}
+	
+	/**
+	 * Starts stamping sent messages with send time and recording latencies of
+	 * received messages. Previous measurements are discarded.
+	 */
+	public void enableLatencyMeasurement() {
+		latencyRecorder = new LatencyRecorder();
+	}
+	
+	public void disableLatencyMeasurement() {
+		latencyRecorder = null;
+	}
+	
+	/**
+	 * @return recorder or null if latency measurement is not enabled
+	 */
+	public LatencyRecorder getLatencyRecorder() {
+		return latencyRecorder;
+	}
+	
+	private void stamp(Message m) throws JMSException {
+		if (latencyRecorder != null) {
+			latencyRecorder.stamp(m);
+		}
+	}
+	
+	private void record(Message m) throws JMSException {
+		if (latencyRecorder != null) {
+			latencyRecorder.record(m);
+		}
+	}
+	
+	/**
+	 * @param m
+	 * @return characters of text or bytes of bytes message, 0 for others
+	 * @throws JMSException
+	 */
+	private long bodySize(Message m) throws JMSException {
+		if (m instanceof TextMessage) {
+			String text = ((TextMessage)m).getText();
+			
+			return text != null ? text.length() : 0;
+		}
+		if (m instanceof BytesMessage) {
+			try {
+				return ((BytesMessage)m).getBodyLength();
+			} catch (MessageNotReadableException e) {
+				// created message is write-only until sent
+				return m == message ? createdSize : 0;
 			}
-		} while (lastMessage != null);
+		}
 		
-		return count;
+		return 0;
 	}
 	
 	/**
-	 * Caches already created queues.
+	 * Caches already created queues. Least recently used queue is evicted
+	 * when the cache is full.
 	 * 
 	 * @param queue
 	 * @return
 	 * @throws JMSException
 	 */
 	private Queue getQueue(String queue) throws JMSException {
-		Queue q = session.createQueue(queue);
+		Queue q = queues.get(queue);
+		if (q == null) {
+			q = session.createQueue(queue);
+			queues.put(queue, q);
+		}
 		
 		return q;
 	}
 	
 	/**
-	 * Caches already created topics.
+	 * Caches already created topics. Least recently used topic is evicted
+	 * when the cache is full.
 	 * 
 	 * @param queue
 	 * @return
 	 * @throws JMSException
 	 */
 	private Topic getTopic(String topic) throws JMSException {
-		Topic t  = session.createTopic(topic);
+		Topic t = topics.get(topic);
+		if (t == null) {
+			t = session.createTopic(topic);
+			topics.put(topic, t);
+		}
 		
 		return t;
 	}
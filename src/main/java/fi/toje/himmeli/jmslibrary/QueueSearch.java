@@ -0,0 +1,109 @@
+package fi.toje.himmeli.jmslibrary;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Enumeration;
+
+import javax.jms.BytesMessage;
+import javax.jms.JMSException;
+import javax.jms.Message;
+import javax.jms.Queue;
+import javax.jms.QueueBrowser;
+import javax.jms.Session;
+import javax.jms.TextMessage;
+
+/**
+ * Browses a queue for messages matching selector and optional body text
+ * without consuming them. Browsing stops as soon as the wanted count of
+ * matches is seen, so the whole queue is walked only when it has fewer.
+ *
+ * Text is matched against body of text messages and, decoded with the
+ * charset, body of bytes messages (decompressed if compressed). Other
+ * message types do not match a text.
+ */
+public class QueueSearch {
+
+	private final Session session;
+	private final TextScanner scanner;
+	private final int bufferSize;
+	private String text;
+	private Message first;
+	
+	/**
+	 * @param session
+	 * @param charset of bytes message bodies
+	 * @param bufferSize decode buffer of bytes message bodies
+	 */
+	public QueueSearch(Session session, String charset, int bufferSize) {
+		this.session = session;
+		this.scanner = new TextScanner(charset, bufferSize);
+		this.bufferSize = bufferSize;
+	}
+	
+	/**
+	 * @param text body must contain the text, null or empty matches all
+	 */
+	public void setText(String text) {
+		this.text = text != null && text.length() > 0 ? text : null;
+	}
+	
+	/**
+	 * @param queue
+	 * @param selector message selector, null or empty selects all
+	 * @param max stops after max matching messages, 0 browses all
+	 * @return count of matching messages, at most max
+	 * @throws JMSException
+	 * @throws IOException
+	 */
+	public int run(Queue queue, String selector, int max) throws JMSException, IOException {
+		first = null;
+		int count = 0;
+		QueueBrowser browser = session.createBrowser(queue, selector != null && selector.length() > 0 ? selector : null);
+		try {
+			Enumeration<?> e = browser.getEnumeration();
+			while (e.hasMoreElements() && (max <= 0 || count < max)) {
+				Message m = (Message)e.nextElement();
+				if (matches(m)) {
+					if (first == null) {
+						first = m;
+					}
+					count++;
+				}
+			}
+		} finally {
+			browser.close();
+		}
+		
+		return count;
+	}
+	
+	/**
+	 * @return first matching message of the latest run or null
+	 */
+	public Message getFirst() {
+		return first;
+	}
+	
+	private boolean matches(Message m) throws JMSException, IOException {
+		if (text == null) {
+			return true;
+		}
+		if (m instanceof TextMessage) {
+			String body = ((TextMessage)m).getText();
+			
+			return body != null && body.contains(text);
+		}
+		if (m instanceof BytesMessage) {
+			BytesMessage bm = (BytesMessage)m;
+			InputStream in = BodyCompression.open(bm, bufferSize);
+			try {
+				return scanner.contains(in, text);
+			} finally {
+				in.close();
+				bm.reset();
+			}
+		}
+		
+		return false;
+	}
+}
@@ -0,0 +1,148 @@
+package fi.toje.himmeli.jmslibrary;
+
+import java.io.IOException;
+import java.util.concurrent.locks.LockSupport;
+
+import javax.jms.Destination;
+import javax.jms.JMSException;
+import javax.jms.Message;
+import javax.jms.MessageProducer;
+import javax.jms.Session;
+
+/**
+ * Sends messages of a message log in their original timing, scaled by
+ * speed factor. Messages are read from the log one at a time. Send time of
+ * each message is scheduled from its JMSTimestamp relative to the first
+ * message (log time if the provider did not set timestamps), and the delay
+ * of actual send from the scheduled one is recorded as timing error.
+ * Optional maximum rate is enforced with a token bucket.
+ */
+public class Replay {
+
+	private final Session session;
+	private final MessageProducer producer;
+	private final int bufferSize;
+	private double speed = 1;
+	private double maxRate;
+	private int commitBatch;
+	private LatencyRecorder latencyRecorder;
+	private final LatencyHistogram timingError = new LatencyHistogram();
+	private Measurement measurement;
+	
+	/**
+	 * @param session
+	 * @param producer producer of the session, its delivery mode, priority
+	 * and time to live are used
+	 * @param bufferSize read buffer of the log
+	 */
+	public Replay(Session session, MessageProducer producer, int bufferSize) {
+		this.session = session;
+		this.producer = producer;
+		this.bufferSize = bufferSize;
+	}
+	
+	/**
+	 * @param speed multiple of the original rate, 0 sends as fast as
+	 * possible
+	 */
+	public void setSpeed(double speed) {
+		this.speed = speed;
+	}
+	
+	/**
+	 * @param maxRate messages per second at most, 0 is unlimited
+	 */
+	public void setMaxRate(double maxRate) {
+		this.maxRate = maxRate;
+	}
+	
+	/**
+	 * @param commitBatch messages per commit in transacted session, 0 commits
+	 * only after the last one
+	 */
+	public void setCommitBatch(int commitBatch) {
+		this.commitBatch = commitBatch;
+	}
+	
+	public void setLatencyRecorder(LatencyRecorder latencyRecorder) {
+		this.latencyRecorder = latencyRecorder;
+	}
+	
+	/**
+	 * @param file message log
+	 * @param destination
+	 * @return count of sent messages, bytes read from the log and duration
+	 * @throws JMSException
+	 * @throws IOException
+	 */
+	public Measurement run(String file, Destination destination) throws JMSException, IOException {
+		boolean transacted = session.getTransacted();
+		TokenBucket bucket = maxRate > 0 ? new TokenBucket(maxRate, 1) : null;
+		timingError.reset();
+		MessageLogReader reader = new MessageLogReader(file, bufferSize);
+		measurement = new Measurement();
+		measurement.start();
+		try {
+			long start = System.nanoTime();
+			long origin = 0;
+			boolean first = true;
+			int pending = 0;
+			LoggedMessage lm;
+			while ((lm = reader.next()) != null) {
+				Message m = lm.createMessage(session);
+				long target = 0;
+				if (speed > 0) {
+					long t = lm.getTimestamp() != 0 ? lm.getTimestamp() : lm.getLogTime();
+					if (first) {
+						origin = t;
+						first = false;
+					}
+					target = start + (long)((t - origin) * 1000000.0 / speed);
+					long now;
+					while ((now = System.nanoTime()) - target < 0) {
+						LockSupport.parkNanos(target - now);
+					}
+				}
+				if (bucket != null) {
+					bucket.acquire();
+				}
+				if (speed > 0) {
+					timingError.record((System.nanoTime() - target) / 1000);
+				}
+				if (latencyRecorder != null) {
+					latencyRecorder.stamp(m);
+				}
+				producer.send(destination, m);
+				measurement.add(1, 0);
+				if (transacted && commitBatch > 0 && ++pending == commitBatch) {
+					session.commit();
+					pending = 0;
+				}
+			}
+			if (transacted && (commitBatch <= 0 || pending > 0)) {
+				session.commit();
+			}
+			measurement.add(0, reader.getBytes());
+		} finally {
+			reader.close();
+		}
+		measurement.stop();
+		
+		return measurement;
+	}
+	
+	/**
+	 * @return result of the latest run
+	 */
+	public Measurement getMeasurement() {
+		return measurement;
+	}
+	
+	/**
+	 * @return delays of sends from their schedule in microseconds, empty
+	 * when speed is 0
+	 */
+	public LatencyHistogram getTimingError() {
+		return timingError;
+	}
+}
@@ -0,0 +1,148 @@
+package fi.toje.himmeli.jmslibrary;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+import javax.jms.JMSException;
+import javax.jms.Message;
+import javax.jms.MessageConsumer;
+import javax.jms.Session;
+import javax.jms.TemporaryQueue;
+
+/**
+ * Pool of temporary reply queues, each with a consumer that stays open
+ * between exchanges. Replies are matched by correlation ID, so late replies
+ * of earlier exchanges left in a reused queue are discarded.
+ *
+ * Not thread safe.
+ */
+public class ReplyPool {
+
+	private final Session session;
+	private final int maxIdle;
+	private final Deque<Entry> idle = new ArrayDeque<Entry>();
+	private long created;
+	private long discarded;
+	
+	/**
+	 * @param session session of the consumers
+	 * @param maxIdle count of queues kept for reuse, extra ones are deleted
+	 * on release
+	 */
+	public ReplyPool(Session session, int maxIdle) {
+		this.session = session;
+		this.maxIdle = maxIdle;
+	}
+	
+	/**
+	 * @return idle entry or a new one if none available
+	 * @throws JMSException
+	 */
+	public Entry acquire() throws JMSException {
+		Entry entry = idle.pollFirst();
+		if (entry == null) {
+			TemporaryQueue queue = session.createTemporaryQueue();
+			entry = new Entry(queue, session.createConsumer(queue));
+			created++;
+		}
+		
+		return entry;
+	}
+	
+	/**
+	 * Returns entry to the pool.
+	 *
+	 * @param entry
+	 * @throws JMSException
+	 */
+	public void release(Entry entry) throws JMSException {
+		if (idle.size() < maxIdle) {
+			// most recently used first, keeps the rest idle
+			idle.addFirst(entry);
+		} else {
+			entry.close();
+		}
+	}
+	
+	/**
+	 * Closes consumers and deletes queues of idle entries.
+	 *
+	 * @throws JMSException
+	 */
+	public void close() throws JMSException {
+		JMSException error = null;
+		Entry entry;
+		while ((entry = idle.pollFirst()) != null) {
+			try {
+				entry.close();
+			} catch (JMSException e) {
+				error = e;
+			}
+		}
+		if (error != null) {
+			throw error;
+		}
+	}
+	
+	public int getIdle() {
+		return idle.size();
+	}
+	
+	public long getCreated() {
+		return created;
+	}
+	
+	/**
+	 * @return count of replies discarded because of unknown correlation ID
+	 */
+	public long getDiscarded() {
+		return discarded;
+	}
+	
+	public class Entry {
+		
+		private final TemporaryQueue queue;
+		private final MessageConsumer consumer;
+		
+		Entry(TemporaryQueue queue, MessageConsumer consumer) {
+			this.queue = queue;
+			this.consumer = consumer;
+		}
+		
+		public TemporaryQueue getQueue() {
+			return queue;
+		}
+		
+		/**
+		 * Receives until reply with the correlation ID arrives or timeout
+		 * elapses. Other replies are discarded.
+		 *
+		 * @param correlationId
+		 * @param timeout milliseconds
+		 * @return reply or null
+		 * @throws JMSException
+		 */
+		public Message receive(String correlationId, long timeout) throws JMSException {
+			long deadline = System.nanoTime() + timeout * 1000000L;
+			while (true) {
+				long remaining = (deadline - System.nanoTime()) / 1000000L;
+				if (remaining <= 0) {
+					return null;
+				}
+				Message reply = consumer.receive(remaining);
+				if (reply == null) {
+					return null;
+				}
+				if (correlationId.equals(reply.getJMSCorrelationID())) {
+					return reply;
+				}
+				discarded++;
+			}
+		}
+		
+		void close() throws JMSException {
+			consumer.close();
+			queue.delete();
+		}
+	}
+}
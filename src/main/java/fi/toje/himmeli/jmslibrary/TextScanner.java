@@ -0,0 +1,198 @@
+package fi.toje.himmeli.jmslibrary;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+
+/**
+ * Decodes text from byte stream in bounded buffers, so that searching text
+ * does not need the whole text in memory. Malformed input is replaced like
+ * in String(byte[], charset). The decoder and buffers are reused between
+ * calls.
+ *
+ * Not thread safe.
+ */
+public class TextScanner {
+
+	private final CharsetDecoder decoder;
+	private final ByteBuffer bytes;
+	private final CharBuffer chars;
+	
+	/**
+	 * @param charset
+	 * @param bufferSize bytes read at a time
+	 */
+	public TextScanner(String charset, int bufferSize) {
+		this.decoder = Charset.forName(charset).newDecoder()
+				.onMalformedInput(CodingErrorAction.REPLACE)
+				.onUnmappableCharacter(CodingErrorAction.REPLACE);
+		this.bytes = ByteBuffer.allocate(Math.max(bufferSize, 16));
+		this.chars = CharBuffer.allocate(Math.max(bufferSize, 16));
+	}
+	
+	/**
+	 * @param in
+	 * @param sizeHint expected count of bytes, used to size the result
+	 * @return whole text of the stream
+	 * @throws IOException
+	 */
+	public String read(InputStream in, long sizeHint) throws IOException {
+		final StringBuilder sb = new StringBuilder((int)Math.min(Math.max(sizeHint, 16), Integer.MAX_VALUE - 8));
+		decode(in, new Handler() {
+			@Override
+			public boolean handle(CharBuffer cb) {
+				sb.append(cb);
+				
+				return true;
+			}
+		});
+		
+		return sb.toString();
+	}
+	
+	/**
+	 * Counts non-overlapping occurrences of text.
+	 *
+	 * @param in
+	 * @param text
+	 * @param max stops after max occurrences, 0 counts all
+	 * @return count of occurrences
+	 * @throws IOException
+	 */
+	public long count(InputStream in, String text, final long max) throws IOException {
+		if (text.length() == 0) {
+			throw new IllegalArgumentException("Text to search must not be empty.");
+		}
+		final Matcher matcher = new Matcher(text);
+		decode(in, new Handler() {
+			@Override
+			public boolean handle(CharBuffer cb) {
+				while (cb.hasRemaining()) {
+					if (matcher.next(cb.get()) && max > 0 && matcher.matches >= max) {
+						return false;
+					}
+				}
+				
+				return true;
+			}
+		});
+		
+		return matcher.matches;
+	}
+	
+	/**
+	 * Stops reading at the first occurrence.
+	 *
+	 * @param in
+	 * @param text
+	 * @return true if stream contains text
+	 * @throws IOException
+	 */
+	public boolean contains(InputStream in, String text) throws IOException {
+		return count(in, text, 1) > 0;
+	}
+	
+	private void decode(InputStream in, Handler handler) throws IOException {
+		decoder.reset();
+		bytes.clear();
+		chars.clear();
+		boolean eof = false;
+		while (!eof) {
+			int n = in.read(bytes.array(), bytes.arrayOffset() + bytes.position(), bytes.remaining());
+			if (n < 0) {
+				eof = true;
+			} else {
+				bytes.position(bytes.position() + n);
+			}
+			bytes.flip();
+			CoderResult r;
+			do {
+				r = decoder.decode(bytes, chars, eof);
+				if (!emit(handler)) {
+					return;
+				}
+			} while (r.isOverflow());
+			bytes.compact();
+		}
+		CoderResult r;
+		do {
+			r = decoder.flush(chars);
+			if (!emit(handler)) {
+				return;
+			}
+		} while (r.isOverflow());
+	}
+	
+	private boolean emit(Handler handler) {
+		chars.flip();
+		boolean more = true;
+		if (chars.hasRemaining()) {
+			more = handler.handle(chars);
+		}
+		chars.clear();
+		
+		return more;
+	}
+	
+	private interface Handler {
+		
+		/**
+		 * @param cb decoded characters
+		 * @return false stops decoding
+		 */
+		boolean handle(CharBuffer cb);
+	}
+	
+	/**
+	 * Knuth-Morris-Pratt matcher fed one character at a time, so matches
+	 * spanning buffer boundaries are found.
+	 */
+	private static class Matcher {
+		
+		private final char[] pattern;
+		private final int[] failure;
+		private int matched;
+		private long matches;
+		
+		Matcher(String text) {
+			pattern = text.toCharArray();
+			failure = new int[pattern.length];
+			int k = 0;
+			for (int i = 1; i < pattern.length; i++) {
+				while (k > 0 && pattern[i] != pattern[k]) {
+					k = failure[k - 1];
+				}
+				if (pattern[i] == pattern[k]) {
+					k++;
+				}
+				failure[i] = k;
+			}
+		}
+		
+		/**
+		 * @param c
+		 * @return true if c completed a match
+		 */
+		boolean next(char c) {
+			while (matched > 0 && c != pattern[matched]) {
+				matched = failure[matched - 1];
+			}
+			if (c == pattern[matched]) {
+				matched++;
+			}
+			if (matched == pattern.length) {
+				matches++;
+				matched = 0;
+				
+				return true;
+			}
+			
+			return false;
+		}
+	}
+}
@@ -0,0 +1,220 @@
+package fi.toje.himmeli.jmslibrary;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import javax.jms.BytesMessage;
+import javax.jms.Destination;
+import javax.jms.JMSException;
+import javax.jms.Message;
+import javax.jms.MessageConsumer;
+import javax.jms.MessageProducer;
+import javax.jms.Session;
+
+/**
+ * Produces messages to a destination and consumes them at the same time on
+ * separate sessions of the same connection. Measures producer and consumer
+ * rates, end-to-end latency and the time the consumer needs after the last
+ * send to empty the backlog.
+ */
+public class ThroughputRun {
+
+	private final ProviderConnection providerConnection;
+	private final String destinationType;
+	private final String destination;
+	private long count = 10000;
+	private int size = 1024;
+	private long timeout = 60000;
+	private int deliveryMode = Message.DEFAULT_DELIVERY_MODE;
+	private int priority = Message.DEFAULT_PRIORITY;
+	private long timeToLive = Message.DEFAULT_TIME_TO_LIVE;
+	private final Measurement produced = new Measurement();
+	private final Measurement consumed = new Measurement();
+	private final LatencyHistogram latency = new LatencyHistogram();
+	private long drainNanos;
+	
+	/**
+	 * @param providerConnection started connection
+	 * @param destinationType queue or topic
+	 * @param destination
+	 */
+	public ThroughputRun(ProviderConnection providerConnection, String destinationType, String destination) {
+		this.providerConnection = providerConnection;
+		this.destinationType = destinationType;
+		this.destination = destination;
+	}
+	
+	/**
+	 * @param count messages to send
+	 */
+	public void setCount(long count) {
+		this.count = count;
+	}
+	
+	/**
+	 * @param size body bytes of each message
+	 */
+	public void setSize(int size) {
+		this.size = size;
+	}
+	
+	/**
+	 * @param timeout milliseconds the whole run may take
+	 */
+	public void setTimeout(long timeout) {
+		this.timeout = timeout;
+	}
+	
+	public void setProducerSettings(int deliveryMode, int priority, long timeToLive) {
+		this.deliveryMode = deliveryMode;
+		this.priority = priority;
+		this.timeToLive = timeToLive;
+	}
+	
+	/**
+	 * Sends count messages and receives until all of them have arrived or
+	 * timeout elapses.
+	 *
+	 * @throws Exception if sessions cannot be created or sending fails
+	 */
+	public void run() throws Exception {
+		if (count <= 0) {
+			throw new Exception("Invalid count: " + count + ".");
+		}
+		Session consumerSession = providerConnection.createSession(false, Session.AUTO_ACKNOWLEDGE);
+		Session producerSession = null;
+		ExecutorService executor = Executors.newSingleThreadExecutor();
+		try {
+			producerSession = providerConnection.createSession(false, Session.AUTO_ACKNOWLEDGE);
+			// consumer exists before the first send, also for topics
+			final MessageConsumer consumer = consumerSession.createConsumer(createDestination(consumerSession));
+			Destination d = createDestination(producerSession);
+			MessageProducer producer = producerSession.createProducer(d);
+			producer.setDeliveryMode(deliveryMode);
+			producer.setPriority(priority);
+			producer.setTimeToLive(timeToLive);
+			BytesMessage message = producerSession.createBytesMessage();
+			message.writeBytes(new byte[size]);
+			
+			final long deadline = System.nanoTime() + timeout * 1000000L;
+			consumed.start();
+			Future<Long> receiver = executor.submit(new Callable<Long>() {
+				@Override
+				public Long call() throws Exception {
+					return receive(consumer, deadline);
+				}
+			});
+			produced.start();
+			for (long i = 0; i < count && System.nanoTime() - deadline < 0; i++) {
+				message.setLongProperty(LatencyRecorder.SEND_TIME_PROPERTY, LatencyRecorder.currentTimeMicros());
+				producer.send(message);
+				produced.add(1, size);
+			}
+			produced.stop();
+			long sent = System.nanoTime();
+			long last;
+			try {
+				last = receiver.get();
+			} catch (ExecutionException e) {
+				throw new Exception("Consumer failed: " + e.getCause());
+			}
+			drainNanos = Math.max(last - sent, 0);
+		} finally {
+			executor.shutdownNow();
+			if (producerSession != null) {
+				producerSession.close();
+			}
+			consumerSession.close();
+		}
+	}
+	
+	/**
+	 * @return System.nanoTime() of the last received message
+	 */
+	private long receive(MessageConsumer consumer, long deadline) throws JMSException {
+		long last = System.nanoTime();
+		while (consumed.getCount() < count) {
+			long wait = (deadline - System.nanoTime()) / 1000000L;
+			if (wait <= 0) {
+				break;
+			}
+			Message m = consumer.receive(wait);
+			if (m == null) {
+				break;
+			}
+			last = System.nanoTime();
+			if (m.propertyExists(LatencyRecorder.SEND_TIME_PROPERTY)) {
+				latency.record(LatencyRecorder.currentTimeMicros() - m.getLongProperty(LatencyRecorder.SEND_TIME_PROPERTY));
+			}
+			consumed.add(1, size);
+		}
+		consumed.stop();
+		
+		return last;
+	}
+	
+	private Destination createDestination(Session session) throws JMSException {
+		if (Options.DESTINATION_TYPE_TOPIC.equals(destinationType)) {
+			return session.createTopic(destination);
+		}
+		
+		return session.createQueue(destination);
+	}
+	
+	public long getCount() {
+		return count;
+	}
+	
+	public Measurement getProduced() {
+		return produced;
+	}
+	
+	/**
+	 * @return received messages, elapsed time from the start of the run to
+	 * the last receive
+	 */
+	public Measurement getConsumed() {
+		return consumed;
+	}
+	
+	/**
+	 * @return end-to-end latencies in microseconds
+	 */
+	public LatencyHistogram getLatency() {
+		return latency;
+	}
+	
+	/**
+	 * @return nanoseconds from the last send until the last message was
+	 * received
+	 */
+	public long getDrainNanos() {
+		return drainNanos;
+	}
+	
+	/**
+	 * Keys: count, received, size, producer_rate and consumer_rate
+	 * (messages/s), elapsed_ms, drain_ms and latency (dictionary of
+	 * percentiles in milliseconds).
+	 *
+	 * @return
+	 */
+	public Map<String, Object> toMap() {
+		Map<String, Object> map = new LinkedHashMap<String, Object>();
+		map.put("count", produced.getCount());
+		map.put("received", consumed.getCount());
+		map.put("size", size);
+		map.put("producer_rate", produced.getRate());
+		map.put("consumer_rate", consumed.getRate());
+		map.put("elapsed_ms", consumed.getElapsedMillis());
+		map.put("drain_ms", drainNanos / 1000000.0);
+		map.put("latency", latency.toMap());
+		
+		return map;
+	}
+}
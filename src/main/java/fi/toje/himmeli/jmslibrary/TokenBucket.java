@@ -0,0 +1,54 @@
+package fi.toje.himmeli.jmslibrary;
+
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Limits rate of operations. Tokens are added at constant rate up to
+ * capacity, each operation takes one and waits if none is available. The
+ * capacity allows short bursts after idle periods.
+ *
+ * Not thread safe.
+ */
+public class TokenBucket {
+
+	private final double tokensPerNano;
+	private final double capacity;
+	private double tokens;
+	private long last;
+	
+	/**
+	 * @param rate tokens per second
+	 * @param capacity maximum count of saved tokens, at least 1
+	 */
+	public TokenBucket(double rate, double capacity) {
+		if (rate <= 0) {
+			throw new IllegalArgumentException("Invalid rate: " + rate + ".");
+		}
+		this.tokensPerNano = rate / 1000000000.0;
+		this.capacity = Math.max(capacity, 1);
+		this.tokens = this.capacity;
+		this.last = System.nanoTime();
+	}
+	
+	/**
+	 * Takes one token, waits until available.
+	 *
+	 * @return nanoseconds waited
+	 */
+	public long acquire() {
+		long waited = 0;
+		while (true) {
+			long now = System.nanoTime();
+			tokens = Math.min(capacity, tokens + (now - last) * tokensPerNano);
+			last = now;
+			if (tokens >= 1) {
+				tokens -= 1;
+				
+				return waited;
+			}
+			long wait = (long)Math.ceil((1 - tokens) / tokensPerNano);
+			LockSupport.parkNanos(wait);
+			waited += System.nanoTime() - now;
+		}
+	}
+}
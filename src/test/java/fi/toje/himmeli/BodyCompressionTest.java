@@ -0,0 +1,96 @@
+package fi.toje.himmeli;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.jms.BytesMessage;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import fi.toje.himmeli.jmslibrary.BodyCompression;
+
+public class BodyCompressionTest {
+
+	@Test
+	public void roundTrip() throws Exception {
+		StringBuilder sb = new StringBuilder();
+		for (int i = 0; i < 1000; i++) {
+			sb.append("<row><id>").append(i).append("</id><name>value</name></row>\n");
+		}
+		byte[] original = sb.toString().getBytes("UTF-8");
+		FakeBytesMessage fake = new FakeBytesMessage();
+		BytesMessage message = fake.create();
+		BodyCompression compression = new BodyCompression(256);
+		compression.compress(new ByteArrayInputStream(original), message, 9);
+		Assert.assertTrue(BodyCompression.isCompressed(message));
+		Assert.assertEquals(original.length, compression.getOriginalBytes());
+		Assert.assertEquals(fake.body.size(), compression.getCompressedBytes());
+		Assert.assertTrue("ratio " + compression.getRatio(), compression.getRatio() > 5);
+		Assert.assertEquals((long)original.length, fake.properties.get(BodyCompression.ORIGINAL_SIZE_PROPERTY));
+		
+		BodyCompression decompression = new BodyCompression(256);
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		decompression.decompress(message, out);
+		Assert.assertArrayEquals(original, out.toByteArray());
+		Assert.assertEquals(original.length, decompression.getOriginalBytes());
+		Assert.assertEquals(compression.getCompressedBytes(), decompression.getCompressedBytes());
+	}
+	
+	@Test
+	public void uncompressedIsNotMarked() throws Exception {
+		Assert.assertFalse(BodyCompression.isCompressed(new FakeBytesMessage().create()));
+	}
+	
+	/**
+	 * BytesMessage backed by a byte array, reset starts reading from the
+	 * beginning.
+	 */
+	private static class FakeBytesMessage implements InvocationHandler {
+		
+		ByteArrayOutputStream body = new ByteArrayOutputStream();
+		Map<String, Object> properties = new HashMap<String, Object>();
+		int position;
+		
+		BytesMessage create() {
+			return (BytesMessage)Proxy.newProxyInstance(BytesMessage.class.getClassLoader(), new Class<?>[] { BytesMessage.class }, this);
+		}
+		
+		@Override
+		public Object invoke(Object proxy, Method method, Object[] args) {
+			String name = method.getName();
+			if (name.equals("writeBytes")) {
+				body.write((byte[])args[0], (Integer)args[1], (Integer)args[2]);
+			} else if (name.equals("writeByte")) {
+				body.write((Byte)args[0]);
+			} else if (name.startsWith("set") && name.endsWith("Property")) {
+				properties.put((String)args[0], args[1]);
+			} else if (name.equals("getStringProperty")) {
+				Object value = properties.get(args[0]);
+				
+				return value != null ? value.toString() : null;
+			} else if (name.equals("getBodyLength")) {
+				return (long)body.size();
+			} else if (name.equals("reset")) {
+				position = 0;
+			} else if (name.equals("readBytes")) {
+				byte[] bytes = body.toByteArray();
+				int n = Math.min((Integer)args[1], bytes.length - position);
+				if (n <= 0) {
+					return -1;
+				}
+				System.arraycopy(bytes, position, (byte[])args[0], 0, n);
+				position += n;
+				
+				return n;
+			}
+			
+			return null;
+		}
+	}
+}
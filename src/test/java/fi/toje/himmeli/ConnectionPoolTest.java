@@ -0,0 +1,146 @@
+package fi.toje.himmeli;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+
+import javax.jms.Connection;
+import javax.jms.ConnectionFactory;
+import javax.jms.ExceptionListener;
+import javax.jms.JMSException;
+import javax.jms.Session;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import fi.toje.himmeli.jmslibrary.ConnectionPool;
+
+public class ConnectionPoolTest {
+
+	@Test
+	public void releasedConnectionIsReused() throws Exception {
+		ConnectionPool pool = new ConnectionPool(2, 60000);
+		TestFactory factory = new TestFactory();
+		Connection c1 = pool.lease(factory.proxy, "user", "pw", "id");
+		pool.release(c1);
+		Connection c2 = pool.lease(factory.proxy, "user", "pw", "id");
+		Assert.assertSame(c1, c2);
+		Assert.assertEquals(1, factory.created);
+		Assert.assertEquals(1, (long)pool.getStatistics().get("reused"));
+	}
+	
+	@Test
+	public void matchedByUsernameAndClientId() throws Exception {
+		ConnectionPool pool = new ConnectionPool(4, 60000);
+		TestFactory factory = new TestFactory();
+		pool.release(pool.lease(factory.proxy, "user", "pw", "id"));
+		pool.lease(factory.proxy, "other", "pw", "id");
+		pool.lease(factory.proxy, "user", "pw", null);
+		Assert.assertEquals(3, factory.created);
+		Assert.assertEquals(1, (long)pool.getStatistics().get("idle"));
+	}
+	
+	@Test
+	public void differentPasswordCreatesNewConnection() throws Exception {
+		ConnectionPool pool = new ConnectionPool(4, 60000);
+		TestFactory factory = new TestFactory();
+		Connection c1 = pool.lease(factory.proxy, "user", "pw", "id");
+		pool.release(c1);
+		Connection c2 = pool.lease(factory.proxy, "user", "wrong", "id");
+		Assert.assertNotSame(c1, c2);
+		Assert.assertEquals(2, factory.created);
+		Assert.assertEquals(1, (long)pool.getStatistics().get("idle"));
+	}
+	
+	@Test
+	public void providerIsCalledOutsideLock() throws Exception {
+		ConnectionPool pool = new ConnectionPool(2, 60000);
+		TestFactory factory = new TestFactory();
+		factory.pool = pool;
+		pool.release(pool.lease(factory.proxy, null, null, null));
+		pool.lease(factory.proxy, null, null, null);
+		Assert.assertFalse(factory.locked);
+	}
+	
+	@Test(expected = Exception.class)
+	public void leaseFailsWhenFull() throws Exception {
+		ConnectionPool pool = new ConnectionPool(1, 60000);
+		TestFactory factory = new TestFactory();
+		pool.lease(factory.proxy, null, null, null);
+		pool.lease(factory.proxy, null, null, null);
+	}
+	
+	@Test
+	public void brokenConnectionIsDiscarded() throws Exception {
+		ConnectionPool pool = new ConnectionPool(2, 60000);
+		TestFactory factory = new TestFactory();
+		Connection c1 = pool.lease(factory.proxy, null, null, null);
+		pool.release(c1);
+		factory.listener.onException(new JMSException("lost"));
+		Connection c2 = pool.lease(factory.proxy, null, null, null);
+		Assert.assertNotSame(c1, c2);
+		Assert.assertEquals(1, factory.closed);
+		Assert.assertEquals(1, (long)pool.getStatistics().get("discarded"));
+	}
+	
+	@Test
+	public void idleConnectionIsEvicted() throws Exception {
+		ConnectionPool pool = new ConnectionPool(2, 0);
+		TestFactory factory = new TestFactory();
+		pool.release(pool.lease(factory.proxy, null, null, null));
+		pool.lease(factory.proxy, null, null, null);
+		Assert.assertEquals(2, factory.created);
+		Assert.assertEquals(1, factory.closed);
+	}
+	
+	@Test
+	public void closeIdle() throws Exception {
+		ConnectionPool pool = new ConnectionPool(2, 60000);
+		TestFactory factory = new TestFactory();
+		pool.release(pool.lease(factory.proxy, null, null, null));
+		pool.lease(factory.proxy, "user", "pw", null);
+		Assert.assertEquals(1, pool.closeIdle());
+		Assert.assertEquals(1, factory.closed);
+		Assert.assertEquals(1, (long)pool.getStatistics().get("leased"));
+	}
+	
+	private static class TestFactory implements InvocationHandler {
+		
+		ConnectionFactory proxy = (ConnectionFactory)Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[] { ConnectionFactory.class }, this);
+		ExceptionListener listener;
+		int created;
+		int closed;
+		ConnectionPool pool;
+		boolean locked;
+		
+		@Override
+		public Object invoke(Object p, Method method, Object[] args) throws Throwable {
+			String name = method.getName();
+			if (pool != null && Thread.holdsLock(pool)) {
+				locked = true;
+			}
+			if (name.equals("createConnection")) {
+				created++;
+				
+				return Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[] { Connection.class }, this);
+			}
+			if (name.equals("createSession")) {
+				return Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[] { Session.class }, this);
+			}
+			if (name.equals("setExceptionListener")) {
+				listener = (ExceptionListener)args[0];
+			}
+			if (name.equals("close") && p instanceof Connection) {
+				closed++;
+			}
+			if (name.equals("hashCode")) {
+				return System.identityHashCode(p);
+			}
+			if (name.equals("equals")) {
+				return p == args[0];
+			}
+			
+			return null;
+		}
+	}
+}
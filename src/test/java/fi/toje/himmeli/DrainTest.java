@@ -0,0 +1,118 @@
+package fi.toje.himmeli;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.jms.JMSException;
+import javax.jms.Message;
+import javax.jms.MessageConsumer;
+import javax.jms.Session;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import fi.toje.himmeli.jmslibrary.Drain;
+
+public class DrainTest {
+
+	@Test
+	public void commitsEveryBatch() throws Exception {
+		TestSession session = new TestSession(true, 5);
+		Assert.assertEquals(5, new Drain(session.proxy, 2, 0).run(session.consumer).getCount());
+		Assert.assertEquals(3, session.count("commit"));
+		Assert.assertEquals(0, session.count("rollback"));
+	}
+	
+	@Test
+	public void failedBatchIsRolledBack() throws Exception {
+		TestSession session = new TestSession(true, 5);
+		Drain drain = new Drain(session.proxy, 2, 0);
+		drain.setHandler(new FailingHandler(4));
+		try {
+			drain.run(session.consumer);
+			Assert.fail("Draining should fail.");
+		} catch (JMSException e) {
+			// expected
+		}
+		Assert.assertEquals(1, session.count("commit"));
+		Assert.assertEquals(1, session.count("rollback"));
+	}
+	
+	@Test
+	public void failedBatchIsRecovered() throws Exception {
+		TestSession session = new TestSession(false, 5);
+		Drain drain = new Drain(session.proxy, 10, 0);
+		drain.setHandler(new FailingHandler(3));
+		try {
+			drain.run(session.consumer);
+			Assert.fail("Draining should fail.");
+		} catch (JMSException e) {
+			// expected
+		}
+		Assert.assertEquals(0, session.count("acknowledge"));
+		Assert.assertEquals(1, session.count("recover"));
+	}
+	
+	private static class FailingHandler implements Drain.Handler {
+		
+		private final int failAt;
+		private int count;
+		
+		FailingHandler(int failAt) {
+			this.failAt = failAt;
+		}
+		
+		@Override
+		public void handle(Message m) throws JMSException {
+			if (++count == failAt) {
+				throw new JMSException("failed");
+			}
+		}
+	}
+	
+	private static class TestSession implements InvocationHandler {
+		
+		Session proxy = (Session)Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[] { Session.class }, this);
+		MessageConsumer consumer = (MessageConsumer)Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[] { MessageConsumer.class }, this);
+		Message message = (Message)Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[] { Message.class }, this);
+		List<String> calls = new ArrayList<String>();
+		boolean transacted;
+		int available;
+		
+		TestSession(boolean transacted, int available) {
+			this.transacted = transacted;
+			this.available = available;
+		}
+		
+		int count(String name) {
+			int c = 0;
+			for (String call : calls) {
+				if (call.equals(name)) {
+					c++;
+				}
+			}
+			
+			return c;
+		}
+		
+		@Override
+		public Object invoke(Object p, Method method, Object[] args) {
+			String name = method.getName();
+			calls.add(name);
+			if (name.equals("getTransacted")) {
+				return transacted;
+			}
+			if (name.equals("getAcknowledgeMode")) {
+				return transacted ? Session.SESSION_TRANSACTED : Session.CLIENT_ACKNOWLEDGE;
+			}
+			if (name.equals("receiveNoWait") || name.equals("receive")) {
+				return available-- > 0 ? message : null;
+			}
+			
+			return null;
+		}
+	}
+}
@@ -0,0 +1,53 @@
+package fi.toje.himmeli;
+
+import java.util.Map;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import fi.toje.himmeli.jmslibrary.JmsStatistics;
+
+public class JmsStatisticsTest {
+
+	@Test
+	public void recordsCountSizeAndDuration() {
+		JmsStatistics stats = new JmsStatistics();
+		stats.record(JmsStatistics.SEND, System.nanoTime() - 2000000L, 10);
+		stats.record(JmsStatistics.SEND, System.nanoTime(), 5);
+		Assert.assertEquals(2, stats.getCount(JmsStatistics.SEND));
+		Assert.assertEquals(15, stats.getSize(JmsStatistics.SEND));
+		Assert.assertTrue(stats.getMaxMillis(JmsStatistics.SEND) >= 2);
+		Assert.assertTrue(stats.getMeanMillis(JmsStatistics.SEND) >= 1);
+		Assert.assertEquals(0, stats.getCount(JmsStatistics.RECEIVE));
+		Assert.assertEquals(0, stats.getMeanMillis(JmsStatistics.RECEIVE), 0);
+	}
+	
+	@Test
+	@SuppressWarnings("unchecked")
+	public void mapContainsRecordedOperations() {
+		JmsStatistics stats = new JmsStatistics();
+		stats.record(JmsStatistics.QUEUE_DEPTH, System.nanoTime(), 0);
+		Map<String, Object> map = stats.toMap();
+		Assert.assertEquals(1, map.size());
+		Map<String, Object> op = (Map<String, Object>)map.get("queue_depth");
+		Assert.assertEquals(1L, op.get("count"));
+	}
+	
+	@Test
+	public void operationNamesMatchConstants() {
+		String[] operations = new JmsStatistics().getOperations();
+		Assert.assertEquals("capture", operations[JmsStatistics.CAPTURE]);
+		Assert.assertEquals("replay", operations[JmsStatistics.REPLAY]);
+		Assert.assertEquals(JmsStatistics.REPLAY + 1, operations.length);
+	}
+	
+	@Test
+	public void resetClearsValues() {
+		JmsStatistics stats = new JmsStatistics();
+		stats.record(JmsStatistics.CLEAR, System.nanoTime() - 1000000L, 3);
+		stats.reset();
+		Assert.assertEquals(0, stats.getCounts()[JmsStatistics.CLEAR]);
+		Assert.assertEquals(0, stats.getMaxMillis()[JmsStatistics.CLEAR], 0);
+		Assert.assertTrue(stats.toMap().isEmpty());
+	}
+}
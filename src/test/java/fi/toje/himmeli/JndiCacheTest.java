@@ -0,0 +1,79 @@
+package fi.toje.himmeli;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.Hashtable;
+
+import javax.jms.ConnectionFactory;
+import javax.naming.Context;
+import javax.naming.NamingException;
+import javax.naming.spi.InitialContextFactory;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import fi.toje.himmeli.jmslibrary.JndiCache;
+
+public class JndiCacheTest {
+
+	private static final String FACTORY = CountingContextFactory.class.getName();
+	private static int lookups;
+	
+	@Before
+	public void invalidate() {
+		JndiCache.invalidate();
+		lookups = 0;
+	}
+	
+	@Test
+	public void secondLookupHits() throws Exception {
+		long hits = JndiCache.getStatistics().get("hits");
+		long misses = JndiCache.getStatistics().get("misses");
+		ConnectionFactory cf1 = JndiCache.getConnectionFactory(FACTORY, "url", "ConnectionFactory");
+		ConnectionFactory cf2 = JndiCache.getConnectionFactory(FACTORY, "url", "ConnectionFactory");
+		Assert.assertSame(cf1, cf2);
+		Assert.assertEquals(1, lookups);
+		Assert.assertEquals(hits + 1, (long)JndiCache.getStatistics().get("hits"));
+		Assert.assertEquals(misses + 1, (long)JndiCache.getStatistics().get("misses"));
+	}
+	
+	@Test
+	public void keyedByUrlAndLookupName() throws Exception {
+		JndiCache.getConnectionFactory(FACTORY, "url", "ConnectionFactory");
+		JndiCache.getConnectionFactory(FACTORY, "url", "other");
+		JndiCache.getConnectionFactory(FACTORY, "url2", "ConnectionFactory");
+		Assert.assertEquals(3, lookups);
+		Assert.assertEquals(2, (long)JndiCache.getStatistics().get("contexts"));
+		Assert.assertEquals(3, (long)JndiCache.getStatistics().get("factories"));
+	}
+	
+	@Test
+	public void invalidateLooksUpAgain() throws Exception {
+		ConnectionFactory cf1 = JndiCache.getConnectionFactory(FACTORY, "url", "ConnectionFactory");
+		Assert.assertEquals(1, JndiCache.invalidate());
+		ConnectionFactory cf2 = JndiCache.getConnectionFactory(FACTORY, "url", "ConnectionFactory");
+		Assert.assertNotSame(cf1, cf2);
+		Assert.assertEquals(2, lookups);
+	}
+	
+	public static class CountingContextFactory implements InitialContextFactory {
+		
+		@Override
+		public Context getInitialContext(Hashtable<?, ?> environment) throws NamingException {
+			return (Context)Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[] { Context.class }, new InvocationHandler() {
+				@Override
+				public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+					if (method.getName().equals("lookup")) {
+						lookups++;
+						
+						return Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[] { ConnectionFactory.class }, this);
+					}
+					
+					return null;
+				}
+			});
+		}
+	}
+}
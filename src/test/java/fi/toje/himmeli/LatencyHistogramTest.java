@@ -0,0 +1,55 @@
+package fi.toje.himmeli;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import fi.toje.himmeli.jmslibrary.LatencyHistogram;
+
+public class LatencyHistogramTest {
+
+	@Test
+	public void smallValuesAreExact() {
+		LatencyHistogram h = new LatencyHistogram();
+		for (int i = 1; i <= 10; i++) {
+			h.record(i);
+		}
+		Assert.assertEquals(10, h.getCount());
+		Assert.assertEquals(5, h.getValueAtPercentile(50));
+		Assert.assertEquals(9, h.getValueAtPercentile(90));
+		Assert.assertEquals(10, h.getValueAtPercentile(100));
+		Assert.assertEquals(1, h.getMin());
+		Assert.assertEquals(10, h.getMax());
+		Assert.assertEquals(5.5, h.getMean(), 0.0001);
+	}
+	
+	@Test
+	public void largeValuesWithinRelativeError() {
+		LatencyHistogram h = new LatencyHistogram();
+		for (long i = 1; i <= 100000; i++) {
+			h.record(i * 10);
+		}
+		long p50 = h.getValueAtPercentile(50);
+		long p99 = h.getValueAtPercentile(99);
+		Assert.assertTrue(p50 >= 500000 && p50 <= 500000 * 1.0625);
+		Assert.assertTrue(p99 >= 990000 && p99 <= 990000 * 1.0625);
+		Assert.assertEquals(1000000, h.getValueAtPercentile(100));
+	}
+	
+	@Test
+	public void negativeIsZero() {
+		LatencyHistogram h = new LatencyHistogram();
+		h.record(-5);
+		Assert.assertEquals(0, h.getMax());
+		Assert.assertEquals(0, h.getValueAtPercentile(50));
+	}
+	
+	@Test
+	public void reset() {
+		LatencyHistogram h = new LatencyHistogram();
+		h.record(Long.MAX_VALUE);
+		Assert.assertEquals(Long.MAX_VALUE, h.getValueAtPercentile(99.9));
+		h.reset();
+		Assert.assertEquals(0, h.getCount());
+		Assert.assertEquals(0, h.getValueAtPercentile(99));
+	}
+}
@@ -0,0 +1,51 @@
+package fi.toje.himmeli;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import fi.toje.himmeli.jmslibrary.LruCache;
+
+public class LruCacheTest {
+
+	@Test
+	public void hitsAndMisses() {
+		LruCache<String, String> cache = new LruCache<String, String>(2);
+		Assert.assertNull(cache.get("a"));
+		cache.put("a", "A");
+		Assert.assertEquals("A", cache.get("a"));
+		Assert.assertEquals("A", cache.get("a"));
+		Assert.assertEquals(2, cache.getHits());
+		Assert.assertEquals(1, cache.getMisses());
+	}
+	
+	@Test
+	public void evictsLeastRecentlyUsed() {
+		LruCache<String, String> cache = new LruCache<String, String>(2);
+		cache.put("a", "A");
+		cache.put("b", "B");
+		cache.get("a");
+		cache.put("c", "C");
+		Assert.assertEquals(2, cache.size());
+		Assert.assertEquals(1, cache.getEvictions());
+		Assert.assertEquals("A", cache.get("a"));
+		Assert.assertNull(cache.get("b"));
+		Assert.assertEquals("C", cache.get("c"));
+	}
+	
+	@Test
+	public void clearKeepsStatistics() {
+		LruCache<String, String> cache = new LruCache<String, String>(2);
+		cache.put("a", "A");
+		cache.get("a");
+		cache.clear();
+		Assert.assertEquals(0, cache.size());
+		Assert.assertNull(cache.get("a"));
+		Assert.assertEquals(1, cache.getHits());
+		Assert.assertEquals(1, cache.getMisses());
+	}
+	
+	@Test(expected=IllegalArgumentException.class)
+	public void invalidSize() {
+		new LruCache<String, String>(0);
+	}
+}
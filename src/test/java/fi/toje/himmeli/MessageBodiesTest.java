@@ -0,0 +1,111 @@
+package fi.toje.himmeli;
+
+import java.io.Serializable;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.jms.MapMessage;
+import javax.jms.MessageEOFException;
+import javax.jms.MessageFormatException;
+import javax.jms.StreamMessage;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import fi.toje.himmeli.jmslibrary.MessageBodies;
+
+public class MessageBodiesTest {
+
+	@Test
+	public void mapValuesKeepTypes() throws Exception {
+		final Map<String, Object> body = new LinkedHashMap<String, Object>();
+		MapMessage message = (MapMessage)Proxy.newProxyInstance(MapMessage.class.getClassLoader(), new Class<?>[] { MapMessage.class }, new InvocationHandler() {
+			@Override
+			public Object invoke(Object proxy, Method method, Object[] args) {
+				String name = method.getName();
+				if (name.equals("setObject")) {
+					body.put((String)args[0], args[1]);
+				} else if (name.equals("getObject")) {
+					return body.get(args[0]);
+				} else if (name.equals("getMapNames")) {
+					return Collections.enumeration(body.keySet());
+				}
+				
+				return null;
+			}
+		});
+		Map<String, Object> values = new LinkedHashMap<String, Object>();
+		values.put("s", "text");
+		values.put("i", 1);
+		values.put("b", true);
+		values.put("d", 1.5);
+		values.put("big", BigInteger.valueOf(42));
+		values.put("other", Arrays.asList("x"));
+		MessageBodies.write(message, values);
+		Map<String, Object> read = MessageBodies.read(message);
+		Assert.assertEquals("text", read.get("s"));
+		Assert.assertEquals(1, read.get("i"));
+		Assert.assertEquals(true, read.get("b"));
+		Assert.assertEquals(1.5, read.get("d"));
+		Assert.assertEquals(42L, read.get("big"));
+		Assert.assertEquals("[x]", read.get("other"));
+		Assert.assertEquals(new ArrayList<String>(values.keySet()), new ArrayList<String>(read.keySet()));
+	}
+	
+	@Test
+	public void streamIsReadFromBeginning() throws Exception {
+		final List<Object> body = new ArrayList<Object>();
+		final int[] position = new int[1];
+		StreamMessage message = (StreamMessage)Proxy.newProxyInstance(StreamMessage.class.getClassLoader(), new Class<?>[] { StreamMessage.class }, new InvocationHandler() {
+			@Override
+			public Object invoke(Object proxy, Method method, Object[] args) throws Exception {
+				String name = method.getName();
+				if (name.equals("writeObject")) {
+					body.add(args[0]);
+				} else if (name.equals("reset")) {
+					position[0] = 0;
+				} else if (name.equals("readObject")) {
+					if (position[0] == body.size()) {
+						throw new MessageEOFException("end");
+					}
+					
+					return body.get(position[0]++);
+				}
+				
+				return null;
+			}
+		});
+		MessageBodies.write(message, Arrays.asList("a", 2L, false));
+		position[0] = 1;
+		Assert.assertEquals(Arrays.<Object>asList("a", 2L, false), MessageBodies.read(message));
+	}
+	
+	@Test
+	public void collectionsAreCopiedToSerializable() throws Exception {
+		Map<String, Object> map = Collections.<String, Object>singletonMap("a", 1);
+		Serializable s = MessageBodies.toSerializable(map);
+		Assert.assertEquals(map, s);
+		Assert.assertNull(MessageBodies.toSerializable(null));
+	}
+	
+	@Test
+	public void propertyValuesAreConverted() throws Exception {
+		Assert.assertEquals("x", MessageBodies.toPropertyValue("p", 'x'));
+		Assert.assertEquals(5L, MessageBodies.toPropertyValue("p", BigInteger.valueOf(5)));
+		Assert.assertEquals(1.5, MessageBodies.toPropertyValue("p", 1.5));
+		Assert.assertNull(MessageBodies.toPropertyValue("p", null));
+	}
+	
+	@Test(expected = MessageFormatException.class)
+	public void bytesAreNotPropertyValue() throws Exception {
+		MessageBodies.toPropertyValue("p", new byte[] { 1 });
+	}
+}
@@ -0,0 +1,75 @@
+package fi.toje.himmeli;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+
+import javax.jms.Message;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import fi.toje.himmeli.jmslibrary.MessageCapture;
+
+public class MessageCaptureTest {
+
+	@Test
+	public void awaitReturnsWhenCountReached() throws Exception {
+		final MessageCapture capture = new MessageCapture(10);
+		Thread t = new Thread() {
+			@Override
+			public void run() {
+				capture.onMessage(message());
+				capture.onMessage(message());
+			}
+		};
+		t.start();
+		Assert.assertTrue(capture.await(2, 5000));
+		t.join();
+		Assert.assertEquals(2, capture.size());
+	}
+	
+	@Test
+	public void awaitTimesOut() throws Exception {
+		MessageCapture capture = new MessageCapture(10);
+		capture.onMessage(message());
+		Assert.assertFalse(capture.await(2, 10));
+	}
+	
+	@Test
+	public void dropsWhenFull() throws Exception {
+		MessageCapture capture = new MessageCapture(1);
+		Message first = message();
+		capture.onMessage(first);
+		capture.onMessage(message());
+		Assert.assertEquals(1, capture.getCaptured());
+		Assert.assertEquals(1, capture.getDropped());
+		Assert.assertSame(first, capture.poll(0));
+		Assert.assertNull(capture.poll(0));
+	}
+	
+	@Test
+	public void drainEmptiesBuffer() throws Exception {
+		MessageCapture capture = new MessageCapture(10);
+		capture.onMessage(message());
+		capture.onMessage(message());
+		Assert.assertEquals(2, capture.drain().size());
+		Assert.assertEquals(0, capture.size());
+	}
+	
+	private static Message message() {
+		return (Message)Proxy.newProxyInstance(Message.class.getClassLoader(), new Class<?>[] { Message.class }, new InvocationHandler() {
+			@Override
+			public Object invoke(Object proxy, Method method, Object[] args) {
+				if ("equals".equals(method.getName())) {
+					return proxy == args[0];
+				}
+				if ("hashCode".equals(method.getName())) {
+					return System.identityHashCode(proxy);
+				}
+				
+				return null;
+			}
+		});
+	}
+}
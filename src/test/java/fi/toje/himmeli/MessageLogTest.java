@@ -0,0 +1,224 @@
+package fi.toje.himmeli;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import javax.jms.BytesMessage;
+import javax.jms.Message;
+import javax.jms.Session;
+import javax.jms.TextMessage;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import fi.toje.himmeli.jmslibrary.LatencyRecorder;
+import fi.toje.himmeli.jmslibrary.LoggedMessage;
+import fi.toje.himmeli.jmslibrary.MessageLogReader;
+import fi.toje.himmeli.jmslibrary.MessageLogWriter;
+
+public class MessageLogTest {
+
+	@Test
+	public void textMessageRoundTrip() throws Exception {
+		File file = tempFile();
+		FakeMessage text = new FakeMessage();
+		text.headers.put("getJMSMessageID", "ID:1");
+		text.headers.put("getJMSCorrelationID", "corr");
+		text.headers.put("getJMSTimestamp", 1234L);
+		text.headers.put("getJMSPriority", 7);
+		text.headers.put("getText", "Hello \u00e4");
+		text.properties.put("s", "value");
+		text.properties.put("i", 42);
+		text.properties.put("l", 43L);
+		text.properties.put("b", true);
+		text.properties.put("d", 1.5);
+		MessageLogWriter writer = new MessageLogWriter(file.getPath(), 16);
+		writer.write(text.create(TextMessage.class));
+		writer.close();
+		MessageLogReader reader = new MessageLogReader(file.getPath(), 16);
+		LoggedMessage m = reader.next();
+		Assert.assertEquals(LoggedMessage.BODY_TEXT, m.getBodyType());
+		Assert.assertEquals("ID:1", m.getMessageId());
+		Assert.assertEquals("corr", m.getCorrelationId());
+		Assert.assertNull(m.getType());
+		Assert.assertEquals(1234L, m.getTimestamp());
+		Assert.assertEquals(7, m.getPriority());
+		Assert.assertEquals("Hello \u00e4", m.getText());
+		Assert.assertEquals(text.properties, m.getProperties());
+		Assert.assertNull(reader.next());
+		Assert.assertEquals(1, reader.getCount());
+		Assert.assertEquals(writer.getBytes(), reader.getBytes());
+		reader.close();
+	}
+	
+	@Test
+	public void textLongerThanBufferIsStreamed() throws Exception {
+		File file = tempFile();
+		StringBuilder sb = new StringBuilder();
+		for (int i = 0; i < 20; i++) {
+			sb.append("a\u00e4\u20ac\ud83d\ude00");
+		}
+		FakeMessage text = new FakeMessage();
+		text.headers.put("getText", sb.toString());
+		MessageLogWriter writer = new MessageLogWriter(file.getPath(), 16);
+		writer.write(text.create(TextMessage.class));
+		writer.close();
+		MessageLogReader reader = new MessageLogReader(file.getPath(), 16);
+		Assert.assertEquals(sb.toString(), reader.next().getText());
+		Assert.assertNull(reader.next());
+		reader.close();
+	}
+	
+	@Test
+	public void bytesMessagesAreAppended() throws Exception {
+		File file = tempFile();
+		for (int i = 0; i < 2; i++) {
+			FakeMessage bytes = new FakeMessage();
+			bytes.body = new byte[100];
+			bytes.body[99] = (byte)i;
+			MessageLogWriter writer = new MessageLogWriter(file.getPath(), 16);
+			writer.write(bytes.create(BytesMessage.class));
+			writer.close();
+		}
+		MessageLogReader reader = new MessageLogReader(file.getPath(), 16);
+		for (int i = 0; i < 2; i++) {
+			LoggedMessage m = reader.next();
+			Assert.assertEquals(LoggedMessage.BODY_BYTES, m.getBodyType());
+			Assert.assertEquals(100, m.getBytes().length);
+			Assert.assertEquals(i, m.getBytes()[99]);
+		}
+		Assert.assertNull(reader.next());
+		reader.close();
+	}
+	
+	@Test
+	public void providerAndSendTimePropertiesAreNotReplayed() throws Exception {
+		File file = tempFile();
+		FakeMessage logged = new FakeMessage();
+		logged.headers.put("getText", "Hello");
+		logged.properties.put("s", "value");
+		logged.properties.put("JMSXDeliveryCount", 2);
+		logged.properties.put(LatencyRecorder.SEND_TIME_PROPERTY, 1234L);
+		MessageLogWriter writer = new MessageLogWriter(file.getPath(), 16);
+		writer.write(logged.create(TextMessage.class));
+		writer.close();
+		MessageLogReader reader = new MessageLogReader(file.getPath(), 16);
+		LoggedMessage m = reader.next();
+		reader.close();
+		Assert.assertEquals(3, m.getProperties().size());
+		final FakeMessage created = new FakeMessage();
+		Session session = (Session)Proxy.newProxyInstance(Session.class.getClassLoader(), new Class<?>[] { Session.class }, new InvocationHandler() {
+			@Override
+			public Object invoke(Object proxy, Method method, Object[] args) {
+				return created.create(TextMessage.class);
+			}
+		});
+		m.createMessage(session);
+		Assert.assertEquals(Collections.<String, Object>singletonMap("s", "value"), created.properties);
+	}
+	
+	@Test(expected = IOException.class)
+	public void rejectsOtherFiles() throws Exception {
+		File file = tempFile();
+		FileOutputStream fos = new FileOutputStream(file);
+		fos.write("not a log".getBytes("UTF-8"));
+		fos.close();
+		new MessageLogReader(file.getPath(), 16);
+	}
+	
+	@Test(expected = IOException.class)
+	public void truncatedRecordFails() throws Exception {
+		File file = tempFile();
+		FakeMessage text = new FakeMessage();
+		text.headers.put("getText", "Hello");
+		MessageLogWriter writer = new MessageLogWriter(file.getPath(), 16);
+		writer.write(text.create(TextMessage.class));
+		writer.close();
+		RandomAccessFile raf = new RandomAccessFile(file, "rw");
+		raf.setLength(raf.length() - 2);
+		raf.close();
+		MessageLogReader reader = new MessageLogReader(file.getPath(), 16);
+		try {
+			reader.next();
+		} finally {
+			reader.close();
+		}
+	}
+	
+	private static File tempFile() throws IOException {
+		File file = File.createTempFile("jmslibrary", ".log");
+		file.deleteOnExit();
+		file.delete();
+		
+		return file;
+	}
+	
+	/**
+	 * Message backed by maps. Unset headers return default values.
+	 */
+	private static class FakeMessage implements InvocationHandler {
+		
+		Map<String, Object> headers = new LinkedHashMap<String, Object>();
+		Map<String, Object> properties = new LinkedHashMap<String, Object>();
+		byte[] body;
+		int position;
+		
+		Message create(Class<? extends Message> type) {
+			return (Message)Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[] { type }, this);
+		}
+		
+		@Override
+		public Object invoke(Object proxy, Method method, Object[] args) {
+			String name = method.getName();
+			if (name.equals("getPropertyNames")) {
+				return Collections.enumeration(properties.keySet());
+			}
+			if (name.equals("getObjectProperty")) {
+				return properties.get(args[0]);
+			}
+			if (name.equals("setObjectProperty")) {
+				properties.put((String)args[0], args[1]);
+			}
+			if (name.equals("reset")) {
+				position = 0;
+			}
+			if (name.equals("getBodyLength")) {
+				return (long)body.length;
+			}
+			if (name.equals("readBytes")) {
+				byte[] b = (byte[])args[0];
+				int n = Math.min((Integer)args[1], body.length - position);
+				if (n <= 0) {
+					return -1;
+				}
+				System.arraycopy(body, position, b, 0, n);
+				position += n;
+				
+				return n;
+			}
+			if (headers.containsKey(name)) {
+				return headers.get(name);
+			}
+			Class<?> r = method.getReturnType();
+			if (r == long.class) {
+				return 0L;
+			}
+			if (r == int.class) {
+				return 0;
+			}
+			if (r == boolean.class) {
+				return false;
+			}
+			
+			return null;
+		}
+	}
+}
@@ -0,0 +1,100 @@
+package fi.toje.himmeli;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.jms.BytesMessage;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import fi.toje.himmeli.jmslibrary.MessageTemplate;
+
+public class MessageTemplateTest {
+
+	@Test
+	public void rendersValuesAndSequence() {
+		MessageTemplate template = MessageTemplate.compile("<order id=\"${sequence}\" customer=\"${customer}\">${sequence}</order>");
+		MessageTemplate.Renderer renderer = new MessageTemplate.Renderer(null);
+		Map<String, String> values = Collections.singletonMap("customer", "Matti");
+		Assert.assertEquals("<order id=\"1\" customer=\"Matti\">1</order>", renderer.render(template, values).toString());
+		Assert.assertEquals("<order id=\"2\" customer=\"Matti\">2</order>", renderer.render(template, values).toString());
+		Assert.assertEquals(Collections.singletonList("customer"), template.getValueNames());
+	}
+	
+	@Test
+	public void rendersUuidAndTimestamp() {
+		MessageTemplate template = MessageTemplate.compile("${uuid} ${timestamp}");
+		long before = System.currentTimeMillis();
+		String[] parts = new MessageTemplate.Renderer(null).render(template, null).toString().split(" ");
+		Assert.assertEquals(36, parts[0].length());
+		Assert.assertTrue(Long.parseLong(parts[1]) >= before);
+	}
+	
+	@Test
+	public void escapedPlaceholderIsLiteral() {
+		MessageTemplate template = MessageTemplate.compile("$${sequence} ${sequence}");
+		Assert.assertEquals("${sequence} 1", new MessageTemplate.Renderer(null).render(template, null).toString());
+	}
+	
+	@Test(expected = IllegalArgumentException.class)
+	public void missingValueFails() {
+		MessageTemplate template = MessageTemplate.compile("Hello ${name}");
+		new MessageTemplate.Renderer(null).render(template, new HashMap<String, String>());
+	}
+	
+	@Test(expected = IllegalArgumentException.class)
+	public void unterminatedPlaceholderFails() {
+		MessageTemplate.compile("Hello ${name");
+	}
+	
+	@Test
+	public void rendersBytesInCharset() throws Exception {
+		MessageTemplate template = MessageTemplate.compile("päivä ${sequence}");
+		MessageTemplate.Renderer renderer = new MessageTemplate.Renderer("ISO-8859-1");
+		final ByteArrayOutputStream body = new ByteArrayOutputStream();
+		BytesMessage message = (BytesMessage)Proxy.newProxyInstance(BytesMessage.class.getClassLoader(), new Class<?>[] { BytesMessage.class }, new InvocationHandler() {
+			@Override
+			public Object invoke(Object proxy, Method method, Object[] args) {
+				if (method.getName().equals("clearBody")) {
+					body.reset();
+				} else if (method.getName().equals("writeBytes")) {
+					body.write((byte[])args[0], (Integer)args[1], (Integer)args[2]);
+				}
+				
+				return null;
+			}
+		});
+		Assert.assertEquals(7, renderer.render(template, null, message));
+		Assert.assertEquals("päivä 1", new String(body.toByteArray(), "ISO-8859-1"));
+		renderer.render(template, null, message);
+		Assert.assertEquals("päivä 2", new String(body.toByteArray(), "ISO-8859-1"));
+	}
+	
+	@Test
+	public void loadedTemplateIsCachedUntilChanged() throws Exception {
+		File file = File.createTempFile("jmslibrary", ".xml");
+		file.deleteOnExit();
+		write(file, "<a>${sequence}</a>");
+		MessageTemplate template = MessageTemplate.load(file.getPath(), "UTF-8");
+		Assert.assertSame(template, MessageTemplate.load(file.getPath(), "UTF-8"));
+		write(file, "<b>${sequence}</b>");
+		file.setLastModified(file.lastModified() + 2000);
+		MessageTemplate reloaded = MessageTemplate.load(file.getPath(), "UTF-8");
+		Assert.assertNotSame(template, reloaded);
+		Assert.assertEquals("<b>1</b>", new MessageTemplate.Renderer(null).render(reloaded, null).toString());
+	}
+	
+	private static void write(File file, String text) throws Exception {
+		FileOutputStream fos = new FileOutputStream(file);
+		fos.write(text.getBytes("UTF-8"));
+		fos.close();
+	}
+}
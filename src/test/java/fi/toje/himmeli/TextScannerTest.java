@@ -0,0 +1,60 @@
+package fi.toje.himmeli;
+
+import java.io.ByteArrayInputStream;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import fi.toje.himmeli.jmslibrary.TextScanner;
+
+public class TextScannerTest {
+
+	private static final String TEXT = "<a>hyvää päivää</a><a>hei</a><b>äää</b>";
+	
+	@Test
+	public void readWithSmallBuffer() throws Exception {
+		TextScanner scanner = new TextScanner("UTF-8", 16);
+		Assert.assertEquals(TEXT, scanner.read(stream(TEXT, "UTF-8"), 0));
+	}
+	
+	@Test
+	public void readIso88591() throws Exception {
+		TextScanner scanner = new TextScanner("ISO-8859-1", 16);
+		Assert.assertEquals(TEXT, scanner.read(stream(TEXT, "ISO-8859-1"), 0));
+	}
+	
+	@Test
+	public void countAcrossBuffers() throws Exception {
+		StringBuilder sb = new StringBuilder();
+		for (int i = 0; i < 1000; i++) {
+			sb.append(TEXT);
+		}
+		TextScanner scanner = new TextScanner("UTF-8", 16);
+		Assert.assertEquals(2000, scanner.count(stream(sb.toString(), "UTF-8"), "<a>", 0));
+		Assert.assertEquals(1000, scanner.count(stream(sb.toString(), "UTF-8"), "päivää</a><a>", 0));
+		Assert.assertEquals(5, scanner.count(stream(sb.toString(), "UTF-8"), "äää", 5));
+	}
+	
+	@Test
+	public void countNonOverlapping() throws Exception {
+		TextScanner scanner = new TextScanner("UTF-8", 16);
+		Assert.assertEquals(2, scanner.count(stream("aaaaa", "UTF-8"), "aa", 0));
+		Assert.assertEquals(1, scanner.count(stream("abababc", "UTF-8"), "ababc", 0));
+	}
+	
+	@Test
+	public void contains() throws Exception {
+		TextScanner scanner = new TextScanner("UTF-8", 16);
+		Assert.assertTrue(scanner.contains(stream(TEXT, "UTF-8"), "<b>äää</b>"));
+		Assert.assertFalse(scanner.contains(stream(TEXT, "UTF-8"), "<c>"));
+	}
+	
+	@Test(expected=IllegalArgumentException.class)
+	public void emptyText() throws Exception {
+		new TextScanner("UTF-8", 16).count(stream(TEXT, "UTF-8"), "", 0);
+	}
+	
+	private static ByteArrayInputStream stream(String text, String charset) throws Exception {
+		return new ByteArrayInputStream(text.getBytes(charset));
+	}
+}
@@ -0,0 +1,36 @@
+package fi.toje.himmeli;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import fi.toje.himmeli.jmslibrary.TokenBucket;
+
+public class TokenBucketTest {
+
+	@Test
+	public void limitsRate() {
+		TokenBucket bucket = new TokenBucket(1000, 1);
+		long start = System.nanoTime();
+		for (int i = 0; i < 51; i++) {
+			bucket.acquire();
+		}
+		long elapsed = System.nanoTime() - start;
+		// first token is available immediately
+		Assert.assertTrue("elapsed " + elapsed, elapsed >= 49000000L);
+	}
+	
+	@Test
+	public void allowsBurstOfCapacity() {
+		TokenBucket bucket = new TokenBucket(1, 10);
+		long waited = 0;
+		for (int i = 0; i < 10; i++) {
+			waited += bucket.acquire();
+		}
+		Assert.assertEquals(0, waited);
+	}
+	
+	@Test(expected = IllegalArgumentException.class)
+	public void rejectsInvalidRate() {
+		new TokenBucket(0, 1);
+	}
+}